@@ -96,4 +96,8 @@
 -dontwarn org.yaml.snakeyaml.Yaml
 -dontwarn org.yaml.snakeyaml.constructor.BaseConstructor
 -dontwarn org.yaml.snakeyaml.constructor.Constructor
--dontwarn org.yaml.snakeyaml.error.YAMLException
\ No newline at end of file
+-dontwarn org.yaml.snakeyaml.error.YAMLException
+
+# Persisted with Gson, field names and generic types must survive minification
+-keepattributes Signature
+-keep class com.threethan.launchercore.icon.IconSchedule$* { <fields>; }
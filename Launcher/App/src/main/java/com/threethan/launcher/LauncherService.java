@@ -11,6 +11,7 @@ import androidx.annotation.Nullable;
 import androidx.core.util.Consumer;
 
 import com.threethan.launcher.activity.LauncherActivity;
+import com.threethan.launchercore.icon.IconLoader;
 
 import java.util.Collections;
 import java.util.HashMap;
@@ -97,6 +98,16 @@ public class LauncherService extends Service {
         activityByIndex.remove(activity);
     }
 
+    /**
+     * Shrinks the in-memory icon cache when the system is low on memory.
+     * The service outlives activities, so it is the most reliable place to receive this.
+     */
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        IconLoader.cachedIcons.trimMemory(level);
+    }
+
     /**
      * Calls the consumer for each non-null launcher activity
      */
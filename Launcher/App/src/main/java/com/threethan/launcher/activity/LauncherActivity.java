@@ -37,6 +37,8 @@ import com.threethan.launcher.activity.adapter.LauncherAppsAdapter;
 import com.threethan.launcher.activity.adapter.CustomItemAnimator;
 import com.threethan.launcher.activity.adapter.GroupsAdapter;
 import com.threethan.launcher.helper.AppExt;
+import com.threethan.launcher.helper.CacheManager;
+import com.threethan.launcher.helper.IconRefreshJob;
 import com.threethan.launcher.helper.Compat;
 import com.threethan.launcher.activity.support.DataStoreEditor;
 import com.threethan.launcher.activity.dialog.BasicDialog;
@@ -51,6 +53,8 @@ import com.threethan.launcher.activity.executor.WallpaperExecutor;
 import com.threethan.launcher.updater.LauncherUpdater;
 import com.threethan.launcher.activity.view.MarginDecoration;
 import com.threethan.launchercore.Core;
+import com.threethan.launchercore.icon.IconLoader;
+import com.threethan.launchercore.icon.IconPack;
 import com.threethan.launchercore.lib.ImageLib;
 import com.threethan.launchercore.util.Keyboard;
 import com.threethan.launchercore.util.Platform;
@@ -121,7 +125,15 @@ public class LauncherActivity extends ComponentActivity {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_container);
 
+        // Creating the editor starts loading every store in the background. The first read
+        // below waits only for the main store, which must be read before the first frame is
+        // drawn anyway, and is kept small by moving per-app and frequently changing keys into
+        // the other stores. Those finish loading meanwhile, and writes never wait for a load.
         dataStoreEditor = Compat.getDataStore(this);
+        IconPack.setPackage(dataStoreEditor.getString(Settings.KEY_ICON_PACK,
+                Settings.DEFAULT_ICON_PACK));
+        // Opening the icon stores may import legacy icons, so it's done on the icon loader
+        IconLoader.openStores();
 
         Intent intent = new Intent(this, LauncherService.class);
         bindService(intent, launcherServiceConnection, Context.BIND_AUTO_CREATE);
@@ -233,6 +245,7 @@ public class LauncherActivity extends ComponentActivity {
                 + (isFinishing() ? "Finishing" : "Not Finishing"));
         if (launcherService != null && isFinishing()) launcherService.destroyed(this);
 
+        if (settingsManager != null) settingsManager.flushWrites();
         if (isFinishing()) try {
             unbindService(launcherServiceConnection); // Should rarely cause exception
             // For the GC & easier debugging
@@ -250,6 +263,8 @@ public class LauncherActivity extends ComponentActivity {
                 .build());
     }
 
+    /** Max width or height custom wallpapers are saved at, in px */
+    private static final int WALLPAPER_MAX_SIZE = 1280;
     private ImageView selectedImageView;
     public void setSelectedIconImage(ImageView imageView) {
         selectedImageView = imageView;
@@ -260,8 +275,12 @@ public class LauncherActivity extends ComponentActivity {
                 // Callback is invoked after the user selects a media item or closes the photo picker.
                 if (uri != null) {
                     Bitmap bitmap;
+                    // Only decode as large as the image will be saved
+                    final int maxSize = imagePickerTarget == ImagePickerTarget.ICON
+                            ? AppDetailsDialog.CUSTOM_ICON_MAX_SIZE : WALLPAPER_MAX_SIZE;
                     try {
-                        bitmap = ImageLib.bitmapFromStream(getContentResolver().openInputStream(uri));
+                        bitmap = ImageLib.bitmapFromUri(getContentResolver(), uri,
+                                maxSize, maxSize, null);
                     } catch (FileNotFoundException e) {
                         e.printStackTrace();
                         return;
@@ -271,7 +290,7 @@ public class LauncherActivity extends ComponentActivity {
                         case ICON -> AppDetailsDialog.onImageSelected(
                                 bitmap, selectedImageView, this);
                         case WALLPAPER -> {
-                            bitmap = ImageLib.getResizedBitmap(bitmap, 1280);
+                            bitmap = ImageLib.getResizedBitmap(bitmap, WALLPAPER_MAX_SIZE);
                             ImageLib.saveBitmap(bitmap,
                                     new File(getApplicationInfo().dataDir, Settings.CUSTOM_BACKGROUND_PATH));
                             refreshBackground();
@@ -305,6 +324,13 @@ public class LauncherActivity extends ComponentActivity {
         postDelayed(() -> new LauncherUpdater(this).checkAppUpdateInteractive(), 1000);
     }
 
+    @Override
+    protected void onPause() {
+        // Group changes are written after a delay, so make sure they're saved if we're killed
+        if (settingsManager != null) settingsManager.flushWrites();
+        super.onPause();
+    }
+
     /**
      * Reloads and refreshes the current list of packages,
      * and then the resulting app list for every activity
@@ -319,6 +345,9 @@ public class LauncherActivity extends ComponentActivity {
         Log.v(TAG, "Package Reload - Found "+ PlatformExt.installedApps.size() +" packages");
 
         launcherService.forEachActivity(LauncherActivity::refreshAppList);
+        IconPack.invalidate();
+        CacheManager.runIfDue(this, dataStoreEditor);
+        IconRefreshJob.schedule(this);
     }
 
     /**
@@ -507,6 +536,7 @@ public class LauncherActivity extends ComponentActivity {
         if (iconScale  == -1) iconScale  = dataStoreEditor.getInt(Settings.KEY_SCALE , Settings.DEFAULT_SCALE );
 
         int targetSize = dp(iconScale);
+        IconLoader.setTargetSize(targetSize);
         int estimatedWidth = prevViewWidth;
 
         final int nCol = estimatedWidth / (targetSize * 2) * 2; // To nearest 2
@@ -16,7 +16,7 @@ import com.threethan.launcher.R;
 import com.threethan.launcher.activity.adapter.LauncherAppsAdapter;
 import com.threethan.launcher.activity.adapter.GroupsAdapter;
 import com.threethan.launcher.helper.AppExt;
-import com.threethan.launcher.activity.support.DataStoreEditor;
+import com.threethan.launcher.helper.Compat;
 import com.threethan.launcher.activity.dialog.BasicDialog;
 import com.threethan.launcher.helper.PlatformExt;
 import com.threethan.launcher.data.Settings;
@@ -79,7 +79,7 @@ public class LauncherActivityEditable extends LauncherActivity {
 
     @Override
     public void refreshInterface() {
-        dataStoreEditor = new DataStoreEditor(this);
+        dataStoreEditor = Compat.getDataStore(this);
 
         if (editMode == null) editMode = dataStoreEditor.getBoolean(Settings.KEY_EDIT_MODE, false);
 
@@ -0,0 +1,229 @@
+package com.threethan.launcher.activity.adapter;
+
+import android.content.pm.ApplicationInfo;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.recyclerview.widget.GridLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.threethan.launcher.activity.support.SettingsManager;
+import com.threethan.launcher.data.Settings;
+import com.threethan.launchercore.icon.IconLoader;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Warms the icon cache ahead of the app grid, so that icons are usually already in memory
+ * by the time their views are bound.
+ * <p>
+ * While scrolling, the next screenful of apps in the direction of travel is requested.
+ * Whenever the grid's apps change, the first screenful of the groups next to the selected ones
+ * is requested too, so that switching to a neighbouring group doesn't show blank icons.
+ * <p>
+ * Requests use {@link IconLoader#PRIORITY_PREFETCH}, so they never delay visible icons,
+ * and fewer are made while the loader's queue is busy.
+ */
+class IconPrefetcher extends RecyclerView.OnScrollListener {
+    /** No prefetching is done while this many loads are already queued */
+    private static final int MAX_QUEUED_LOADS = 48;
+    /** Apps per screen to assume if the grid hasn't been laid out yet */
+    private static final int FALLBACK_SCREEN_SIZE = 24;
+
+    /** Sorts groups' apps off the ui thread, since labels may need to be loaded */
+    private static final ExecutorService groupExecutor = Executors.newSingleThreadExecutor();
+
+    private final LauncherAppsAdapter adapter;
+    @Nullable private RecyclerView recyclerView;
+
+    /** Pending requests by cache name. Each set is replaced as a whole when its target moves */
+    private final Map<String, IconLoader.IconRequest> scrollRequests = new HashMap<>();
+    private final Map<String, IconLoader.IconRequest> groupRequests = new HashMap<>();
+    private int aheadFrom = -1;
+    private int aheadTo = -1;
+    private int groupGeneration = 0;
+
+    IconPrefetcher(LauncherAppsAdapter adapter) {
+        this.adapter = adapter;
+    }
+
+    void attach(RecyclerView recyclerView) {
+        this.recyclerView = recyclerView;
+        recyclerView.addOnScrollListener(this);
+    }
+    void detach(RecyclerView recyclerView) {
+        recyclerView.removeOnScrollListener(this);
+        if (this.recyclerView == recyclerView) this.recyclerView = null;
+        cancelAll();
+    }
+
+    @Override
+    public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+        if (dy != 0) prefetchAhead(dy > 0);
+    }
+
+    /**
+     * Should be called after the grid's apps change.
+     * Prefetches below the first screen, and the first screen of each adjacent group.
+     * @param groups All groups, in the order they're shown
+     * @param selectedGroups Groups which are currently shown in the grid
+     * @param allApps All apps which may be shown
+     */
+    void onAppsChanged(List<String> groups, Collection<String> selectedGroups,
+                       @Nullable Collection<ApplicationInfo> allApps) {
+        if (recyclerView == null) return;
+        aheadFrom = aheadTo = -1;
+        // Wait for layout, so that visible icons are requested first and the screen size is known
+        recyclerView.post(() -> {
+            prefetchAhead(true);
+            if (allApps != null) prefetchAdjacentGroups(groups, selectedGroups, allApps);
+        });
+    }
+
+    /** Cancels all pending prefetches */
+    void cancelAll() {
+        synchronized (scrollRequests) {
+            for (IconLoader.IconRequest request : scrollRequests.values()) request.cancel();
+            scrollRequests.clear();
+        }
+        synchronized (groupRequests) {
+            groupGeneration++;
+            for (IconLoader.IconRequest request : groupRequests.values()) request.cancel();
+            groupRequests.clear();
+        }
+        aheadFrom = aheadTo = -1;
+    }
+
+    /** Requests the screenful of apps after (or before) the visible ones */
+    private void prefetchAhead(boolean forward) {
+        if (recyclerView == null
+                || !(recyclerView.getLayoutManager() instanceof GridLayoutManager layoutManager))
+            return;
+        final int first = layoutManager.findFirstVisibleItemPosition();
+        final int last = layoutManager.findLastVisibleItemPosition();
+        if (first == RecyclerView.NO_POSITION || last == RecyclerView.NO_POSITION) return;
+        final int screen = last - first + 1;
+        final int count = adapter.getItemCount();
+        final int from = forward ? last + 1 : Math.max(0, first - screen);
+        final int to = forward ? Math.min(count, last + 1 + screen) : first;
+        if (from == aheadFrom && to == aheadTo) return;
+        aheadFrom = from;
+        aheadTo = to;
+
+        List<ApplicationInfo> apps = new ArrayList<>();
+        for (int i = from; i < to; i++) apps.add(adapter.getItem(i));
+        // Nearest apps are requested first, since they're shown first
+        if (!forward) Collections.reverse(apps);
+        request(scrollRequests, apps, -1);
+    }
+
+    /**
+     * Requests the first screenful of the unselected groups
+     * directly before and after the selected ones
+     */
+    private void prefetchAdjacentGroups(List<String> groups, Collection<String> selectedGroups,
+                                        Collection<ApplicationInfo> allApps) {
+        final int screen = screenSize();
+        List<String> adjacentGroups = new ArrayList<>();
+        for (int i = 0; i < groups.size(); i++) {
+            if (!selectedGroups.contains(groups.get(i))) continue;
+            if (i > 0 && !selectedGroups.contains(groups.get(i - 1)))
+                adjacentGroups.add(groups.get(i - 1));
+            if (i + 1 < groups.size() && !selectedGroups.contains(groups.get(i + 1)))
+                adjacentGroups.add(groups.get(i + 1));
+        }
+        adjacentGroups.remove(Settings.HIDDEN_GROUP);
+        if (adjacentGroups.isEmpty()) return;
+
+        final int generation;
+        synchronized (groupRequests) {
+            generation = ++groupGeneration;
+        }
+        final List<ApplicationInfo> appsSnapshot = new ArrayList<>(allApps);
+        groupExecutor.execute(() -> {
+            List<ApplicationInfo> apps = new ArrayList<>();
+            for (String group : adjacentGroups)
+                apps.addAll(firstAppsOfGroup(group, appsSnapshot, screen));
+            request(groupRequests, apps, generation);
+        });
+    }
+
+    /**
+     * Gets the first apps of a group, in the order the grid shows them.
+     * Unlike {@link SettingsManager#getVisibleApps(List, Collection)},
+     * this doesn't modify the group map.
+     */
+    private static List<ApplicationInfo> firstAppsOfGroup(String group,
+                                                          Collection<ApplicationInfo> allApps,
+                                                          int limit) {
+        Map<String, String> appGroupMap = SettingsManager.getAppGroupMap();
+        Map<ApplicationInfo, String> labels = new HashMap<>();
+        for (ApplicationInfo app : allApps)
+            if (Objects.equals(appGroupMap.get(app.packageName), group))
+                labels.put(app, SettingsManager.getSortableAppLabel(app));
+        List<ApplicationInfo> apps = new ArrayList<>(labels.keySet());
+        apps.sort(Comparator.comparing(labels::get));
+        return apps.size() > limit ? apps.subList(0, limit) : apps;
+    }
+
+    /** @return The number of apps which fit on screen, or an estimate if not laid out yet */
+    private int screenSize() {
+        if (recyclerView != null
+                && recyclerView.getLayoutManager() instanceof GridLayoutManager layoutManager) {
+            final int first = layoutManager.findFirstVisibleItemPosition();
+            final int last = layoutManager.findLastVisibleItemPosition();
+            if (first != RecyclerView.NO_POSITION && last != RecyclerView.NO_POSITION)
+                return last - first + 1;
+        }
+        return FALLBACK_SCREEN_SIZE;
+    }
+
+    /**
+     * Replaces a set of pending requests with requests for the given apps,
+     * keeping requests which are still wanted and cancelling the rest.
+     * Fewer apps are requested if the loader is busy.
+     * @param generation If not -1, the requests are dropped if a newer generation was started
+     */
+    private void request(Map<String, IconLoader.IconRequest> requests,
+                         List<ApplicationInfo> apps, int generation) {
+        synchronized (requests) {
+            if (generation != -1 && generation != groupGeneration) return;
+
+            final int budget = MAX_QUEUED_LOADS - IconLoader.getQueuedLoadCount();
+            Set<String> wanted = new HashSet<>();
+            for (ApplicationInfo app : apps) {
+                if (wanted.size() >= budget) break;
+                final String cacheName = IconLoader.cacheName(app);
+                if (IconLoader.cachedIcons.containsKey(cacheName)) continue;
+                wanted.add(cacheName);
+            }
+            requests.entrySet().removeIf(entry -> {
+                if (wanted.contains(entry.getKey())) return false;
+                entry.getValue().cancel();
+                return true;
+            });
+            for (ApplicationInfo app : apps) {
+                final String cacheName = IconLoader.cacheName(app);
+                if (!wanted.contains(cacheName) || requests.containsKey(cacheName)) continue;
+                IconLoader.IconRequest request = IconLoader.loadIcon(app,
+                        IconLoader.PRIORITY_PREFETCH, icon -> {
+                            synchronized (requests) {
+                                requests.remove(cacheName);
+                            }
+                        });
+                if (request != null) requests.put(cacheName, request);
+            }
+        }
+    }
+}
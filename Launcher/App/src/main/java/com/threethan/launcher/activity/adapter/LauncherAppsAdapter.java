@@ -4,6 +4,7 @@ import android.animation.ObjectAnimator;
 import android.content.Context;
 import android.content.pm.ApplicationInfo;
 import android.graphics.Color;
+import android.graphics.drawable.Drawable;
 import android.view.LayoutInflater;
 import android.view.MotionEvent;
 import android.view.View;
@@ -50,6 +51,7 @@ import java.util.Set;
 public class LauncherAppsAdapter extends ArrayListAdapter<ApplicationInfo, LauncherAppsAdapter.AppViewHolder> {
     private LauncherActivity launcherActivity;
     private Set<ApplicationInfo> fullAppSet;
+    private final IconPrefetcher iconPrefetcher = new IconPrefetcher(this);
     private boolean getEditMode() {
         return launcherActivity.isEditing();
     }
@@ -63,8 +65,11 @@ public class LauncherAppsAdapter extends ArrayListAdapter<ApplicationInfo, Launc
         SettingsManager settingsManager = SettingsManager.getInstance(activity);
         launcherActivity = activity;
 
+        final List<String> selectedGroups = settingsManager.getAppGroupsSorted(true);
         setItems(Collections.unmodifiableList(settingsManager
-                .getVisibleApps(settingsManager.getAppGroupsSorted(true), fullAppSet)));
+                .getVisibleApps(selectedGroups, fullAppSet)));
+        iconPrefetcher.onAppsChanged(settingsManager.getAppGroupsSorted(false),
+                selectedGroups, fullAppSet);
     }
     public synchronized void filterBy(String text) {
         boolean showHidden = !text.isEmpty() && launcherActivity.dataStoreEditor.getBoolean(Settings.KEY_SEARCH_HIDDEN, Settings.DEFAULT_SEARCH_HIDDEN);
@@ -104,6 +109,17 @@ public class LauncherAppsAdapter extends ArrayListAdapter<ApplicationInfo, Launc
         launcherActivity = val;
     }
 
+    @Override
+    public void onAttachedToRecyclerView(@NonNull RecyclerView recyclerView) {
+        super.onAttachedToRecyclerView(recyclerView);
+        iconPrefetcher.attach(recyclerView);
+    }
+    @Override
+    public void onDetachedFromRecyclerView(@NonNull RecyclerView recyclerView) {
+        iconPrefetcher.detach(recyclerView);
+        super.onDetachedFromRecyclerView(recyclerView);
+    }
+
     protected static class AppViewHolder extends RecyclerView.ViewHolder {
         View view;
         ImageView imageView;
@@ -115,6 +131,9 @@ public class LauncherAppsAdapter extends ArrayListAdapter<ApplicationInfo, Launc
         TextView textView;
         Button moreButton;
         ApplicationInfo app;
+        @Nullable IconLoader.IconRequest iconRequest;
+        /** Icon currently shown, which is retained in the icon cache while shown */
+        @Nullable Drawable shownIcon;
         @Nullable Boolean banner = null;
         @Nullable Boolean darkMode = null;
         @Nullable Boolean showName = null;
@@ -201,6 +220,7 @@ public class LauncherAppsAdapter extends ArrayListAdapter<ApplicationInfo, Launc
         //noinspection WrapperTypeMayBePrimitive
         final Boolean banner = App.isBanner(app);
         if (banner != holder.banner) {
+            setShownIcon(holder, null);
             holder.imageViewSquare.setVisibility(banner ? View.GONE : View.VISIBLE);
             holder.imageViewBanner.setVisibility(banner ? View.VISIBLE : View.GONE);
             holder.imageView = banner ? holder.imageViewBanner : holder.imageViewSquare;
@@ -235,13 +255,41 @@ public class LauncherAppsAdapter extends ArrayListAdapter<ApplicationInfo, Launc
         holder.app = app;
 
         //Load Icon
-        IconLoader.loadIcon(holder.app, drawable ->
-            launcherActivity.runOnUiThread(() -> holder.imageView.setImageDrawable(drawable))
+        if (holder.iconRequest != null) holder.iconRequest.cancel();
+        holder.iconRequest = IconLoader.loadIcon(holder.app, IconLoader.PRIORITY_VISIBLE, drawable ->
+            launcherActivity.runOnUiThread(() -> {
+                // The holder may have been rebound to another app while loading
+                if (holder.app == app) setShownIcon(holder, drawable);
+            })
         );
 
         updateSelected(holder);
     }
 
+    @Override
+    public void onViewRecycled(@NonNull AppViewHolder holder) {
+        // Don't spend loader time on icons for views which are no longer shown
+        if (holder.iconRequest != null) {
+            holder.iconRequest.cancel();
+            holder.iconRequest = null;
+        }
+        // Let the icon's bitmap be reused once it's no longer cached
+        setShownIcon(holder, null);
+        super.onViewRecycled(holder);
+    }
+
+    /**
+     * Shows an icon on a holder, retaining it in the icon cache (and releasing the previous one)
+     * so that its bitmap can't be reused while shown
+     */
+    private static void setShownIcon(AppViewHolder holder, @Nullable Drawable icon) {
+        if (holder.imageView != null) holder.imageView.setImageDrawable(icon);
+        if (icon == holder.shownIcon) return;
+        IconLoader.cachedIcons.retain(icon);
+        IconLoader.cachedIcons.release(holder.shownIcon);
+        holder.shownIcon = icon;
+    }
+
     public void notifySelectionChange(String packageName) {
         for (int i=0; i<items.size(); i++)
             if (Objects.equals(items.get(i).packageName, packageName))
@@ -344,8 +392,11 @@ public class LauncherAppsAdapter extends ArrayListAdapter<ApplicationInfo, Launc
 
         ImageView animIcon = openAnim.findViewById(R.id.openIcon);
         ImageView animIconBg = openAnim.findViewById(R.id.openIconBg);
-        animIcon.setImageDrawable(holder.imageView.getDrawable());
-        animIconBg.setImageDrawable(holder.imageView.getDrawable());
+        // The launch animation keeps showing the icon, so it must be retained too
+        IconLoader.cachedIcons.retain(holder.shownIcon);
+        IconLoader.cachedIcons.release(animIcon.getDrawable());
+        animIcon.setImageDrawable(holder.shownIcon);
+        animIconBg.setImageDrawable(holder.shownIcon);
         animIconBg.setAlpha(1f);
 
         View openProgress = launcherActivity.rootView.findViewById(R.id.openProgress);
@@ -6,6 +6,7 @@ import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.graphics.Bitmap;
+import android.graphics.drawable.Drawable;
 import android.view.View;
 import android.widget.EditText;
 import android.widget.ImageView;
@@ -13,6 +14,7 @@ import android.widget.Spinner;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import com.threethan.launcher.R;
 import com.threethan.launcher.activity.LauncherActivity;
@@ -27,7 +29,6 @@ import com.threethan.launchercore.lib.StringLib;
 import com.threethan.launchercore.util.App;
 import com.threethan.launchercore.util.Platform;
 
-import java.io.File;
 import java.util.Objects;
 
 /**
@@ -35,9 +36,12 @@ import java.util.Objects;
  * or when long-pressing an app in edit mode
  */
 public class AppDetailsDialog extends BasicDialog<LauncherActivity> {
-    private static File customIconFile;
     private static ApplicationInfo imageApp;
+    /** Max width or height custom icons are saved at, in px */
+    public static final int CUSTOM_ICON_MAX_SIZE = 450;
     private final ApplicationInfo currentApp;
+    /** Icon shown by the dialog, which is retained in the icon cache until it's dismissed */
+    @Nullable private Drawable shownIcon;
 
     /**
      * Constructs a new GroupDetailsDialog. Make sure to call .show()!
@@ -81,18 +85,18 @@ public class AppDetailsDialog extends BasicDialog<LauncherActivity> {
         ImageView iconImageView = dialog.findViewById(R.id.appIcon);
         IconLoader.loadIcon(currentApp, drawable -> {
             if (getActivityContext() == null) return;
-            getActivityContext().runOnUiThread(() ->
-                    iconImageView.setImageDrawable(drawable)
-            );
+            getActivityContext().runOnUiThread(() -> {
+                if (dialog.isShowing()) setShownIcon(iconImageView, drawable);
+            });
         });
+        dialog.setOnDismissListener(d -> setShownIcon(iconImageView, null));
 
         iconImageView.setClipToOutline(true);
         if (App.isBanner(currentApp)) iconImageView.getLayoutParams().width = context.dp(150);
 
         iconImageView.setOnClickListener(iconPickerView -> {
-            customIconFile = IconLoader.iconCustomFileForApp(currentApp);
-            if (customIconFile.exists()) //noinspection ResultOfMethodCallIgnored
-                customIconFile.delete();
+            final String iconKey = IconLoader.iconKeyForApp(currentApp);
+            IconLoader.runOnLoader(() -> IconLoader.customStore.remove(iconKey));
             context.setSelectedIconImage(iconImageView);
 
             imageApp = currentApp;
@@ -110,10 +114,12 @@ public class AppDetailsDialog extends BasicDialog<LauncherActivity> {
             launchButton.setVisibility(View.GONE);
             refreshIconButton.setVisibility(View.VISIBLE);
             refreshIconButton.setOnClickListener(view -> {
-                IconLoader.cachedIcons.remove(currentApp.packageName);
-                IconUpdater.nextCheckByPackageMs.remove(currentApp.packageName);
+                IconLoader.cachedIcons.remove(IconLoader.cacheName(currentApp));
+                IconUpdater.schedule.remove(currentApp.packageName);
                 IconLoader.loadIcon(currentApp, d
-                        -> context.runOnUiThread(() -> iconImageView.setImageDrawable(d)));
+                        -> context.runOnUiThread(() -> {
+                            if (dialog.isShowing()) setShownIcon(iconImageView, d);
+                        }));
             });
 
             launchSizeSpinner.setVisibility(View.GONE);
@@ -219,15 +225,27 @@ public class AppDetailsDialog extends BasicDialog<LauncherActivity> {
         });
         return dialog;
     }
+    private void setShownIcon(ImageView imageView, @Nullable Drawable icon) {
+        imageView.setImageDrawable(icon);
+        if (icon == shownIcon) return;
+        IconLoader.cachedIcons.retain(icon);
+        IconLoader.cachedIcons.release(shownIcon);
+        shownIcon = icon;
+    }
+
     public static void onImageSelected(@NonNull Bitmap bitmap,
                                        ImageView selectedImageView, LauncherActivity launcherActivity) {
-        bitmap = ImageLib.getResizedBitmap(bitmap, 450);
-        ImageLib.saveBitmap(bitmap, customIconFile);
-        selectedImageView.setImageBitmap(bitmap);
-
-        IconLoader.cachedIcons.remove(IconLoader.cacheName(imageApp));
-        launcherActivity.launcherService.forEachActivity(a -> {
-            if (a.getAppAdapter() != null) a.getAppAdapter().notifyItemChanged(imageApp);
+        final Bitmap resizedBitmap = ImageLib.getResizedBitmap(bitmap, CUSTOM_ICON_MAX_SIZE);
+        final ApplicationInfo app = imageApp;
+        selectedImageView.setImageBitmap(resizedBitmap);
+
+        // Compressing and storing the icon is slow, so it's done on the icon loader
+        IconLoader.runOnLoader(() -> {
+            IconLoader.customStore.putBitmap(IconLoader.iconKeyForApp(app), resizedBitmap, 100);
+            IconLoader.cachedIcons.remove(IconLoader.cacheName(app));
+            launcherActivity.runOnUiThread(() -> launcherActivity.launcherService.forEachActivity(a -> {
+                if (a.getAppAdapter() != null) a.getAppAdapter().notifyItemChanged(app);
+            }));
         });
     }
 }
@@ -7,6 +7,8 @@ import android.content.Intent;
 import android.os.Build;
 import android.view.View;
 import android.view.animation.DecelerateInterpolator;
+import android.widget.AdapterView;
+import android.widget.ArrayAdapter;
 import android.widget.ImageView;
 import android.widget.SeekBar;
 import android.widget.Spinner;
@@ -15,6 +17,7 @@ import android.widget.TextView;
 
 import com.threethan.launcher.R;
 import com.threethan.launcher.helper.AppExt;
+import com.threethan.launcher.helper.CacheManager;
 import com.threethan.launcher.helper.Compat;
 import com.threethan.launcher.helper.PlatformExt;
 import com.threethan.launcher.data.Settings;
@@ -22,12 +25,17 @@ import com.threethan.launcher.activity.LauncherActivity;
 import com.threethan.launcher.activity.support.SettingsManager;
 import com.threethan.launcher.helper.SettingsSaver;
 import com.threethan.launcher.updater.LauncherUpdater;
+import com.threethan.launchercore.icon.IconLoader;
+import com.threethan.launchercore.icon.IconPack;
+import com.threethan.launchercore.icon.IconStats;
 import com.threethan.launchercore.util.App;
 import com.threethan.launchercore.util.Platform;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
@@ -524,6 +532,58 @@ public class SettingsDialog extends BasicDialog<LauncherActivity> {
 
         dialog.findViewById(R.id.cancel).setOnClickListener(v -> dialog.dismiss());
     }
+    public static void showIconStats(LauncherActivity a) {
+        AlertDialog dialog = new BasicDialog<>(a, R.layout.dialog_icon_stats).show();
+        if (dialog == null) return;
+
+        TextView statsText = dialog.findViewById(R.id.iconStatsText);
+        statsText.setText(IconStats.describe());
+
+        dialog.findViewById(R.id.iconStatsDump).setOnClickListener(view -> new Thread(() -> {
+            final File file = IconStats.dump();
+            a.runOnUiThread(() -> BasicDialog.toast(file == null
+                    ? a.getString(R.string.toast_icon_stats_dump_failed)
+                    : a.getString(R.string.toast_icon_stats_dumped, file.getAbsolutePath())));
+        }).start());
+        dialog.findViewById(R.id.iconStatsReset).setOnClickListener(view -> {
+            IconStats.reset();
+            statsText.setText(IconStats.describe());
+        });
+        dialog.findViewById(R.id.cancel).setOnClickListener(v -> dialog.dismiss());
+    }
+    private static void initIconPackSpinner(LauncherActivity a, Spinner spinner,
+                                            Map<String, String> labelByPackage) {
+        final List<String> packages = new ArrayList<>();
+        final List<String> labels = new ArrayList<>();
+        packages.add(Settings.DEFAULT_ICON_PACK);
+        labels.add(a.getString(R.string.icon_pack_none));
+        for (Map.Entry<String, String> pack : labelByPackage.entrySet()) {
+            packages.add(pack.getKey());
+            labels.add(pack.getValue());
+        }
+        ArrayAdapter<String> adapter = new ArrayAdapter<>(a, R.layout.spinner_item, labels);
+        adapter.setDropDownViewResource(R.layout.spinner_item_dropdown);
+        spinner.setAdapter(adapter);
+        final String current = a.dataStoreEditor.getString(Settings.KEY_ICON_PACK,
+                Settings.DEFAULT_ICON_PACK);
+        spinner.setSelection(Math.max(0, packages.indexOf(current)));
+        spinner.post(() -> spinner.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
+            @Override
+            public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
+                final String packageName = packages.get(position);
+                if (packageName.equals(a.dataStoreEditor.getString(Settings.KEY_ICON_PACK,
+                        Settings.DEFAULT_ICON_PACK))) return;
+                a.dataStoreEditor.putString(Settings.KEY_ICON_PACK, packageName);
+                IconPack.setPackage(packageName);
+                IconLoader.cachedIcons.evictAll();
+                a.launcherService.forEachActivity(LauncherActivity::resetAdapters);
+            }
+
+            @Override
+            public void onNothingSelected(AdapterView<?> parent) {}
+        }));
+    }
+
     public static void showIconSettings(LauncherActivity a) {
         clearedIconCache = false;
         clearedIconCustom = false;
@@ -531,12 +591,53 @@ public class SettingsDialog extends BasicDialog<LauncherActivity> {
         AlertDialog dialog = new BasicDialog<>(a, R.layout.dialog_setting_reset_icons).show();
         if (dialog == null) return;
 
+        TextView storageStats = dialog.findViewById(R.id.storageStats);
+        Runnable updateStorageStats = () -> new Thread(() -> {
+            final String stats = CacheManager.describe(a, a.dataStoreEditor);
+            a.runOnUiThread(() -> storageStats.setText(stats));
+        }).start();
+        updateStorageStats.run();
+        // Hidden debug panel, for comparing icon loading across builds and devices
+        storageStats.setOnLongClickListener(view -> {
+            showIconStats(a);
+            return true;
+        });
+
+        // Icon pack selection, listed on a background thread since it queries all packages
+        Spinner iconPackSpinner = dialog.findViewById(R.id.iconPackSpinner);
+        new Thread(() -> {
+            final Map<String, String> packs = IconPack.listInstalled();
+            a.runOnUiThread(() -> initIconPackSpinner(a, iconPackSpinner, packs));
+        }).start();
+
+        SeekBar quota = dialog.findViewById(R.id.quotaSeekBar);
+        quota.setMax(Settings.MAX_ICON_CACHE_QUOTA_MB);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) quota.setMin(Settings.MIN_ICON_CACHE_QUOTA_MB);
+        quota.setProgress(CacheManager.getQuotaMb(a.dataStoreEditor));
+        quota.post(() -> quota.setOnSeekBarChangeListener(new SeekBar.OnSeekBarChangeListener() {
+            @Override
+            public void onProgressChanged(SeekBar seekBar, int value, boolean b) {
+            }
+
+            @Override
+            public void onStartTrackingTouch(SeekBar seekBar) {
+            }
+
+            @Override
+            public void onStopTrackingTouch(SeekBar seekBar) {
+                final int quotaMb = Math.max(Settings.MIN_ICON_CACHE_QUOTA_MB, seekBar.getProgress());
+                CacheManager.setQuotaMb(a, a.dataStoreEditor, quotaMb);
+                storageStats.postDelayed(updateStorageStats, 1000);
+            }
+        }));
+
         View clearCache = dialog.findViewById(R.id.clearCache);
         clearCache.setOnClickListener(view -> {
             if (!clearedIconCache) {
                 Compat.clearIconCache(a);
                 clearCache.setAlpha(0.5f);
                 clearedSort = true;
+                updateStorageStats.run();
 
                 BasicDialog.toast(a.getString(R.string.toast_cleared_icon_cache));
             }
@@ -550,6 +651,7 @@ public class SettingsDialog extends BasicDialog<LauncherActivity> {
                 clearedIconCustom = true;
                 clearCache.setAlpha(0.5f);
                 clearedIconCache = true;
+                updateStorageStats.run();
 
                 BasicDialog.toast(a.getString(R.string.toast_cleared_icon_all));
             }
@@ -2,7 +2,6 @@ package com.threethan.launcher.activity.executor;
 
 import android.content.res.Resources;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Rect;
 import android.graphics.drawable.BitmapDrawable;
 import android.os.Build;
@@ -27,20 +26,27 @@ public class WallpaperExecutor {
             // Do fetching of data
             int background = LauncherActivity.backgroundIndex;
             BitmapDrawable backgroundThemeDrawable = null;
+
+            int widthPixels;
+            int heightPixels;
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+                Rect bounds = owner.getWindowManager().getCurrentWindowMetrics().getBounds();
+                widthPixels = bounds.width();
+                heightPixels = bounds.height();
+            } else {
+                heightPixels = Resources.getSystem().getDisplayMetrics().heightPixels;
+                widthPixels = Resources.getSystem().getDisplayMetrics().widthPixels;
+            }
+            final float aspectScreen = widthPixels / (float) heightPixels;
+
             if (background >= 0 && background < SettingsManager.BACKGROUND_DRAWABLES.length) {
 
                 // Create a cropped image asset for the window background
-                Bitmap imageBitmap = BitmapFactory.decodeResource(owner.getResources(), SettingsManager.BACKGROUND_DRAWABLES[background]);
-
-                float aspectScreen;
-                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
-                    Rect bounds = owner.getWindowManager().getCurrentWindowMetrics().getBounds();
-                    aspectScreen = bounds.width() / (float) bounds.height();
-                } else {
-                    int heightPixels = Resources.getSystem().getDisplayMetrics().heightPixels;
-                    int widthPixels = Resources.getSystem().getDisplayMetrics().widthPixels;
-                    aspectScreen = widthPixels / (float) heightPixels;
-                }
+                // Backgrounds are opaque, and needn't be decoded any larger than the window
+                Bitmap imageBitmap = ImageLib.bitmapFromResource(owner.getResources(),
+                        SettingsManager.BACKGROUND_DRAWABLES[background],
+                        widthPixels, heightPixels, Bitmap.Config.RGB_565);
+                if (imageBitmap == null) return;
 
 
                 float aspectImage  = imageBitmap.getWidth() / (float) imageBitmap.getHeight();
@@ -61,7 +67,11 @@ public class WallpaperExecutor {
             } else {
                 File file = new File(owner.getApplicationInfo().dataDir, Settings.CUSTOM_BACKGROUND_PATH);
                 try {
-                    Bitmap backgroundBitmap = ImageLib.bitmapFromFile(file);
+                    // The bitmap is only ever drawn, so it can be kept in graphics memory
+                    Bitmap backgroundBitmap = ImageLib.bitmapFromFile(file,
+                            widthPixels, heightPixels,
+                            Build.VERSION.SDK_INT >= Build.VERSION_CODES.O
+                                    ? Bitmap.Config.HARDWARE : Bitmap.Config.RGB_565);
                     backgroundThemeDrawable = new BitmapDrawable(owner.getResources(), backgroundBitmap);
                 } catch (Exception e) { e.printStackTrace(); }
             }
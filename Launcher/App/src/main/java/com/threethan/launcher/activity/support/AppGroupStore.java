@@ -0,0 +1,241 @@
+package com.threethan.launcher.activity.support;
+
+import android.util.Log;
+
+import com.threethan.launchercore.Core;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Stores which group each app is in, as a log of changes keyed by package.
+ * <p>
+ * The file starts with a small header, followed by records which are only ever appended:
+ * each sets the group of a package, or removes it. Moving an app is a single small append,
+ * rather than a rewrite of every group's set of apps, and the whole map is loaded with one
+ * sequential read of the file.
+ * <p>
+ * Superseded records are left behind, so the file is compacted once they outnumber the
+ * live ones.
+ */
+class AppGroupStore {
+    private static final String TAG = "AppGroupStore";
+    private static final int MAGIC = 0x4C414753; // "LAGS"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 8;
+    private static final byte RECORD_PUT = 1;
+    private static final byte RECORD_REMOVE = 0;
+    /** Stale records are never compacted below this, as it wouldn't be worth the rewrite */
+    private static final int COMPACT_MIN_STALE_RECORDS = 256;
+
+    private final String fileName;
+    private final Map<String, String> groupByPackage = new HashMap<>();
+    private boolean opened = false;
+    /** False if the header couldn't be written, in which case nothing may be appended */
+    private boolean hasHeader = false;
+    private int recordCount = 0;
+
+    /** @param fileName Name of the file, inside the app's data directory */
+    AppGroupStore(String fileName) {
+        this.fileName = fileName;
+    }
+
+    private File file() {
+        return new File(Core.context().getApplicationInfo().dataDir, fileName);
+    }
+
+    /** @return True if the store has been created, so doesn't need to be migrated into */
+    synchronized boolean exists() {
+        return opened || file().exists();
+    }
+
+    private void open() {
+        if (opened) return;
+        opened = true;
+        scan();
+    }
+
+    /** Rebuilds the map from the file, dropping any record which was only partially written */
+    private void scan() {
+        groupByPackage.clear();
+        recordCount = 0;
+        final File file = file();
+        if (!file.exists() || file.length() < HEADER_BYTES) {
+            reset();
+            return;
+        }
+        final byte[] bytes;
+        try (FileInputStream inputStream = new FileInputStream(file)) {
+            bytes = new byte[(int) file.length()];
+            int read = 0;
+            while (read < bytes.length) {
+                final int length = inputStream.read(bytes, read, bytes.length - read);
+                if (length < 0) break;
+                read += length;
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to read " + fileName + ", it will be reset", e);
+            reset();
+            return;
+        }
+        long valid = HEADER_BYTES;
+        try (DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+                Log.w(TAG, "Unrecognized " + fileName + ", it will be reset");
+                reset();
+                return;
+            }
+            hasHeader = true;
+            while (input.available() > 0) {
+                final byte type = input.readByte();
+                final String packageName = input.readUTF();
+                if (type == RECORD_PUT) groupByPackage.put(packageName, input.readUTF());
+                else if (type == RECORD_REMOVE) groupByPackage.remove(packageName);
+                else break;
+                recordCount++;
+                valid = bytes.length - input.available();
+            }
+        } catch (IOException ignored) {
+            // A record was cut off, it's dropped below
+        }
+        if (valid < bytes.length) {
+            Log.w(TAG, "Dropping " + (bytes.length - valid) + " trailing bytes from " + fileName);
+            try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+                randomAccessFile.setLength(valid);
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to truncate " + fileName, e);
+            }
+        }
+    }
+
+    /** Replaces the file with an empty store */
+    private void reset() {
+        groupByPackage.clear();
+        recordCount = 0;
+        hasHeader = write(file(), groupByPackage);
+        if (!hasHeader) Log.e(TAG, "Failed to create " + fileName);
+    }
+
+    /** @return A copy of the group of each app */
+    synchronized Map<String, String> getAll() {
+        open();
+        return new HashMap<>(groupByPackage);
+    }
+
+    /**
+     * Makes the store match the given groups, appending a record only for each app whose
+     * group changed
+     * @param groups The group of each app
+     * @return True if the groups were saved, false if the store is unchanged
+     */
+    synchronized boolean putAll(Map<String, String> groups) {
+        open();
+        // Records appended without a header would be dropped by the next scan
+        if (!hasHeader) reset();
+        if (!hasHeader) return false;
+        List<String> removed = new ArrayList<>();
+        for (String packageName : groupByPackage.keySet())
+            if (!groups.containsKey(packageName)) removed.add(packageName);
+        Map<String, String> changed = new HashMap<>();
+        for (Map.Entry<String, String> entry : groups.entrySet())
+            if (!Objects.equals(groupByPackage.get(entry.getKey()), entry.getValue()))
+                changed.put(entry.getKey(), entry.getValue());
+        if (removed.isEmpty() && changed.isEmpty()) return true;
+
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        try (DataOutputStream output = new DataOutputStream(records)) {
+            for (String packageName : removed) {
+                output.writeByte(RECORD_REMOVE);
+                output.writeUTF(packageName);
+            }
+            for (Map.Entry<String, String> entry : changed.entrySet()) {
+                output.writeByte(RECORD_PUT);
+                output.writeUTF(entry.getKey());
+                output.writeUTF(entry.getValue());
+            }
+        } catch (IOException e) {
+            // Not possible when writing to memory
+            e.printStackTrace();
+            return false;
+        }
+        try (FileOutputStream outputStream = new FileOutputStream(file(), true)) {
+            outputStream.write(records.toByteArray());
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to write to " + fileName, e);
+            scan();
+            return false;
+        }
+        for (String packageName : removed) groupByPackage.remove(packageName);
+        groupByPackage.putAll(changed);
+        recordCount += removed.size() + changed.size();
+        compactIfNeeded();
+        return true;
+    }
+
+    private void compactIfNeeded() {
+        final int staleRecords = recordCount - groupByPackage.size();
+        if (staleRecords > COMPACT_MIN_STALE_RECORDS && staleRecords > groupByPackage.size())
+            compact();
+    }
+
+    /** Rewrites the file with only the current groups, atomically replacing the old one */
+    private void compact() {
+        final File file = file();
+        final File temp = new File(file.getPath() + ".tmp");
+        if (!write(temp, groupByPackage) || !temp.renameTo(file)) {
+            Log.e(TAG, "Failed to compact " + fileName);
+            //noinspection ResultOfMethodCallIgnored
+            temp.delete();
+            return;
+        }
+        recordCount = groupByPackage.size();
+        Log.v(TAG, "Compacted " + fileName + " to " + recordCount + " records");
+    }
+
+    /** Writes a header followed by a record for each app, replacing the file */
+    private boolean write(File file, Map<String, String> groups) {
+        try (DataOutputStream output = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file, false)))) {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            for (Map.Entry<String, String> entry : groups.entrySet()) {
+                output.writeByte(RECORD_PUT);
+                output.writeUTF(entry.getKey());
+                output.writeUTF(entry.getValue());
+            }
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to write " + file.getName(), e);
+            return false;
+        }
+    }
+
+    /** Deletes the file, so the store will need to be migrated into again */
+    synchronized void delete() {
+        groupByPackage.clear();
+        recordCount = 0;
+        opened = false;
+        hasHeader = false;
+        //noinspection ResultOfMethodCallIgnored
+        file().delete();
+    }
+
+    /** Removes the group of every app */
+    synchronized void clear() {
+        opened = true;
+        reset();
+    }
+}
@@ -20,11 +20,16 @@ import androidx.datastore.rxjava3.RxDataStore;
 
 import java.io.File;
 import java.security.InvalidParameterException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import io.reactivex.rxjava3.core.Single;
 import io.reactivex.rxjava3.functions.Consumer;
@@ -39,9 +44,9 @@ import io.reactivex.rxjava3.functions.Consumer;
  *     but instead function using the newer {@link androidx.datastore.core.DataStore} in place of
  *     {@link SharedPreferences}.
  * <p>
- *     In many cases, this may just be a drop-in replacement. However, keep in mind that writes are
- *     asynchronous by default, so async write followed by a read may produce unexpected results.
- *     You may set 'asyncWrite' to false at any time to get back synchronous behaviours.
+ *     In many cases, this may just be a drop-in replacement. Writes are asynchronous by default,
+ *     but reads are served from an in-memory snapshot which writes are applied to immediately,
+ *     so a read always sees earlier writes, and never blocks once the store has been loaded.
  * <p>
  *     Additional functions are provided for asynchronous reading and better handling of DataStores,
  *     which will be accessible when using this class directly, and make implementation of DataStore
@@ -54,10 +59,120 @@ import io.reactivex.rxjava3.functions.Consumer;
 public class DataStoreEditor implements SharedPreferences, SharedPreferences.Editor {
     private static final String TAG = "DataStoreEditor";
     private static final Map<String, RxDataStore<Preferences>> dataStoreByName = new HashMap<>();
+    private static final Map<RxDataStore<Preferences>, Snapshot> snapshotByDataStore = new HashMap<>();
     /** If true, all write operations will be done asynchronously.
      * If false, all write operations will be blocking. */
     public boolean asyncWrite = true;
     RxDataStore<Preferences> dataStoreRX;
+    private final Snapshot snapshot;
+    @Nullable private final Partitioning partitioning;
+    /** Editors of the other data stores keys may be kept in, by name */
+    private final Map<String, DataStoreEditor> partitions = new HashMap<>();
+
+    /**
+     * Chooses which data store each key is kept in, so that keys with different access
+     * patterns can be kept in separate files, and a write to one doesn't rewrite the others.
+     */
+    public interface Partitioning {
+        /** @return Name of the data store the key is kept in, or null for the editor's own */
+        @Nullable String storeFor(String key);
+    }
+
+    /**
+     * The latest contents of a data store, kept in memory so that reads never wait on disk.
+     * <p>
+     * It's fed by the data store's flow of updates, and writes are also applied to it
+     * immediately, so reads see them before they've been saved. While writes are in progress,
+     * updates from the flow are ignored, since they may not include every write yet;
+     * once the last write is saved, its result replaces the snapshot.
+     * If the last write fails instead, the snapshot is reloaded from the data store,
+     * so it doesn't keep edits which were never saved.
+     * <p>
+     * Writes never wait for the first load: edits made before it are kept, and applied
+     * on top of the loaded preferences once they arrive. Since edits only put, remove or
+     * clear keys, applying one which the loaded preferences already include changes nothing.
+     */
+    private static class Snapshot {
+        private final RxDataStore<Preferences> dataStore;
+        private final AtomicReference<Preferences> preferences = new AtomicReference<>();
+        private final CountDownLatch loaded = new CountDownLatch(1);
+        private final AtomicInteger pendingWrites = new AtomicInteger(0);
+        /** Edits made before the first load, in order, guarded by the snapshot's lock */
+        private final List<Edit> editsBeforeLoad = new ArrayList<>();
+
+        @SuppressLint("CheckResult")
+        private Snapshot(RxDataStore<Preferences> dataStore) {
+            this.dataStore = dataStore;
+            dataStore.data().subscribe(this::onData, throwable -> {
+                Log.e(TAG, "Failed to read data store", throwable);
+                loaded.countDown();
+            });
+        }
+        private synchronized void onData(Preferences data) {
+            if (preferences.get() == null) preferences.set(withEditsBeforeLoad(data));
+            else if (pendingWrites.get() == 0) preferences.set(data);
+            loaded.countDown();
+        }
+        /** @return The preferences with any edits made before the first load applied */
+        private Preferences withEditsBeforeLoad(Preferences data) {
+            if (editsBeforeLoad.isEmpty()) return data;
+            MutablePreferences mutablePreferences = data.toMutablePreferences();
+            for (Edit edit : editsBeforeLoad) edit.apply(mutablePreferences);
+            editsBeforeLoad.clear();
+            return mutablePreferences;
+        }
+
+        /** @return The latest preferences, waiting for them if they were never loaded */
+        @Nullable
+        private Preferences get() {
+            final Preferences data = preferences.get();
+            if (data != null) return data;
+            awaitLoaded();
+            return preferences.get();
+        }
+        /** Waits for the first load. Must not be called while holding the snapshot's lock,
+         * since the load needs it to be delivered. */
+        private void awaitLoaded() {
+            try {
+                loaded.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /** Applies an edit to the snapshot, before it's written to the data store */
+        private synchronized void applyLocally(Edit edit) {
+            pendingWrites.incrementAndGet();
+            final Preferences data = preferences.get();
+            if (data == null) {
+                editsBeforeLoad.add(edit);
+                return;
+            }
+            MutablePreferences mutablePreferences = data.toMutablePreferences();
+            edit.apply(mutablePreferences);
+            preferences.set(mutablePreferences);
+        }
+        private synchronized void onWritten(Preferences data) {
+            if (pendingWrites.decrementAndGet() != 0) return;
+            // The saved preferences include every edit, so any kept for the first load are done
+            editsBeforeLoad.clear();
+            preferences.set(data);
+        }
+        @SuppressLint("CheckResult")
+        private synchronized void onWriteFailed(Throwable throwable) {
+            Log.e(TAG, "Failed to write data store", throwable);
+            if (pendingWrites.decrementAndGet() != 0) return;
+            // The failed edit is still in the snapshot, so replace it with what was saved
+            editsBeforeLoad.clear();
+            dataStore.data().firstOrError().subscribe(this::onData,
+                    reloadThrowable -> Log.e(TAG, "Failed to reload data store", reloadThrowable));
+        }
+    }
+
+    /** A change to the preferences of a data store */
+    private interface Edit {
+        void apply(MutablePreferences preferences);
+    }
 
     /** @noinspection rawtypes*/
     final static Class[] classes = new Class[]{
@@ -71,6 +186,26 @@ public class DataStoreEditor implements SharedPreferences, SharedPreferences.Edi
      */
     public DataStoreEditor(Context context, String name) {
         dataStoreRX = getDataStore(context, name);
+        snapshot = getSnapshot(dataStoreRX);
+        partitioning = null;
+    }
+
+    /**
+     * Creates a new instance for the chosen DataStore of the given context, which transparently
+     * keeps some keys in other DataStores. Reads, writes, batches, clear and getAll all
+     * operate across every store.
+     * @param context Context from which to get the DataStores
+     * @param name Name of the main DataStore
+     * @param partitioning Chooses the DataStore of each key
+     * @param partitionNames Names of every other DataStore the partitioning may choose
+     */
+    public DataStoreEditor(Context context, String name, Partitioning partitioning,
+                           String... partitionNames) {
+        dataStoreRX = getDataStore(context, name);
+        snapshot = getSnapshot(dataStoreRX);
+        this.partitioning = partitioning;
+        for (String partitionName : partitionNames)
+            partitions.put(partitionName, new DataStoreEditor(context, partitionName));
     }
 
     /**
@@ -79,6 +214,8 @@ public class DataStoreEditor implements SharedPreferences, SharedPreferences.Edi
      */
     public DataStoreEditor(Context context) {
         dataStoreRX = getDataStore(context, "default");
+        snapshot = getSnapshot(dataStoreRX);
+        partitioning = null;
     }
 
     /**
@@ -87,6 +224,8 @@ public class DataStoreEditor implements SharedPreferences, SharedPreferences.Edi
      */
     public DataStoreEditor(File file) {
         dataStoreRX = getDataStore(file);
+        snapshot = getSnapshot(dataStoreRX);
+        partitioning = null;
     }
     synchronized private RxDataStore<Preferences> getDataStore(Context context, String name) {
         if (dataStoreByName.containsKey(name)) return dataStoreByName.get(name);
@@ -101,6 +240,65 @@ public class DataStoreEditor implements SharedPreferences, SharedPreferences.Edi
         dataStoreByName.put(name, ds);
         return ds;
     }
+    private static synchronized Snapshot getSnapshot(RxDataStore<Preferences> dataStore) {
+        Snapshot snapshot = snapshotByDataStore.get(dataStore);
+        if (snapshot == null) {
+            snapshot = new Snapshot(dataStore);
+            snapshotByDataStore.put(dataStore, snapshot);
+        }
+        return snapshot;
+    }
+
+    /**
+     * Waits until the data store, and any it's partitioned into, have been read from disk.
+     * Loading starts as soon as the editor is created, and each read waits only for the store
+     * it reads from, so this is only needed to make sure no later read waits at all.
+     * It blocks, so shouldn't be called on the ui thread.
+     */
+    public void awaitFirstLoad() {
+        snapshot.awaitLoaded();
+        for (DataStoreEditor partition : partitions.values()) partition.awaitFirstLoad();
+    }
+    /** @return True if the data store has been read, so reads won't wait */
+    public boolean isLoaded() {
+        for (DataStoreEditor partition : partitions.values())
+            if (!partition.isLoaded()) return false;
+        return snapshot.loaded.getCount() == 0;
+    }
+
+    /** @return The editor of the data store which the key is kept in, which may be this */
+    private DataStoreEditor route(String key) {
+        if (partitioning == null) return this;
+        final String name = partitioning.storeFor(key);
+        if (name == null) return this;
+        final DataStoreEditor partition = partitions.get(name);
+        if (partition == null) throw new InvalidParameterException(
+                "Key " + key + " was partitioned to unknown data store " + name);
+        return partition;
+    }
+
+    /**
+     * Applies an edit to the in-memory snapshot, then writes it to the data store
+     * @return The result of the write, which has already been subscribed to
+     */
+    private Single<Preferences> update(Edit edit) {
+        snapshot.applyLocally(edit);
+        @SuppressLint("UnsafeOptInUsageWarning")
+        Single<Preferences> updateResult = dataStoreRX.updateDataAsync(prefsIn -> {
+            MutablePreferences mutablePreferences = prefsIn.toMutablePreferences();
+            edit.apply(mutablePreferences);
+            return Single.just(mutablePreferences);
+        }).doOnSuccess(snapshot::onWritten).doOnError(snapshot::onWriteFailed).cache();
+        //noinspection ResultOfMethodCallIgnored
+        updateResult.subscribe(preferences -> {}, throwable -> {});
+        return updateResult;
+    }
+    /** @return The value of a key in the snapshot, or null if it's unset */
+    @Nullable
+    private <T> T read(Preferences.Key<T> prefKey) {
+        final Preferences preferences = snapshot.get();
+        return preferences == null ? null : preferences.get(prefKey);
+    }
 
     /**
      * Migrates a specific sharedPreference instance to this DataStore
@@ -118,7 +316,10 @@ public class DataStoreEditor implements SharedPreferences, SharedPreferences.Edi
         SharedPreferencesView sharedPreferencesView
                 = new SharedPreferencesView(sharedPreferences, sharedPreferences.getAll().keySet());
         Map<String, Object> allPrefs = sharedPreferencesView.getAll();
-        allPrefs.forEach(this::putValue);
+        Batch batch = edit();
+        allPrefs.forEach(batch::putValue);
+        if (asyncWrite) batch.apply();
+        else batch.commit();
     }
     /**
      * Migrates default sharedPreferences to this DataStore (calls migrateFrom)
@@ -139,8 +340,9 @@ public class DataStoreEditor implements SharedPreferences, SharedPreferences.Edi
     @RequiresApi(api = Build.VERSION_CODES.N)
     public void copyFrom(File dataStoreFile) {
         DataStoreEditor other = new DataStoreEditor(dataStoreFile);
-        getAll().forEach((key, o) -> removeValue(key, o.getClass(), true));
-        other.getAll().forEach((key, o) -> putValue(key, o, true));
+        Batch batch = edit().clear();
+        other.getAll().forEach(batch::putValue);
+        batch.commit();
     }
 
     // Utility Functions
@@ -201,7 +403,8 @@ public class DataStoreEditor implements SharedPreferences, SharedPreferences.Edi
     }
 
     /**
-     * Synchronously gets the value of the given key
+     * Gets the value of the given key from the in-memory snapshot, without blocking
+     * (unless the data store hasn't been read yet)
      * @param key The name of the key
      * @param def The default value, if none was found
      * @param tClass Class of the value
@@ -209,6 +412,8 @@ public class DataStoreEditor implements SharedPreferences, SharedPreferences.Edi
      * @param <T> Type of the value, should be derived automatically from tClass
      */
     public <T> T getValue(String key, @Nullable T def, Class<T> tClass) {
+        final DataStoreEditor target = route(key);
+        if (target != this) return target.getValue(key, def, tClass);
         Preferences.Key<T> prefKey = getKey(key, tClass);
         //noinspection DataFlowIssue,unchecked
         @NonNull T nnDef = def==null ? (T) nullFallbacks.get(tClass) : def;
@@ -216,28 +421,25 @@ public class DataStoreEditor implements SharedPreferences, SharedPreferences.Edi
                 "null was passed as default value on a data store read, " +
                 "this may not work as expected!\n A saved value of '" + nnDef +
                 "' will be considered as equivalent to a nonexistent value for this operation.");
-        @SuppressLint("UnsafeOptInUsageWarning")
-        Single<T> value = dataStoreRX.data().firstOrError()
-                .map(prefs -> prefs.get(prefKey)).onErrorReturn(throwable -> nnDef);
-        if (def == null) {
-            @NonNull T r = value.blockingGet();
-            return (r == nullFallbacks.get(tClass) ? null : r);
-        } else return value.blockingGet();
+        final T value = read(prefKey);
+        if (value == null) return def;
+        if (def == null) return (value == nullFallbacks.get(tClass) ? null : value);
+        return value;
     }
     /**
-     * Synchronously gets the value of the given key
+     * Gets the value of the given key from the in-memory snapshot, without blocking
+     * (unless the data store hasn't been read yet)
      * @param key The name of the key
      * @param def The default value, if none was found
      * @return The value at the given key
      * @param <T> Type of the value, should be derived automatically from def
      */
     public <T> T getValue(String key, @NonNull T def) {
+        final DataStoreEditor target = route(key);
+        if (target != this) return target.getValue(key, def);
         Preferences.Key<T> prefKey = getKey(key, def);
-        T nullFallback = null;
-        @SuppressLint("UnsafeOptInUsageWarning")
-        Single<T> value = dataStoreRX.data().firstOrError()
-                .map(prefs -> prefs.get(prefKey)).onErrorReturn(throwable -> def);
-        return value.blockingGet();
+        final T value = read(prefKey);
+        return value == null ? def : value;
     }
     /**
      * Asynchronously gets the value of the given key
@@ -248,10 +450,12 @@ public class DataStoreEditor implements SharedPreferences, SharedPreferences.Edi
      * @param <T> Type of the value, should be derived automatically from tClass
      */
     public <T> void getValue(String key, @Nullable T def, Consumer<T> consumer, Class<T> tClass) {
-        Preferences.Key<T> prefKey = getKey(key, tClass);
-        Single<T> value = dataStoreRX.data().firstOrError()
-                .map(prefs -> prefs.get(prefKey)).onErrorReturn(throwable -> def);
-        value.blockingSubscribe(consumer);
+        final T value = route(key).read(getKey(key, tClass));
+        try {
+            consumer.accept(value == null ? def : value);
+        } catch (Throwable throwable) {
+            Log.e(TAG, "Error while consuming value of " + key, throwable);
+        }
     }
     /**
      * Asynchronously gets the value of the given key
@@ -261,10 +465,12 @@ public class DataStoreEditor implements SharedPreferences, SharedPreferences.Edi
      * @param <T> Type of the value, should be derived automatically from def
      */
     public <T> void getValue(String key, @NonNull T def, Consumer<T> consumer) {
-        Preferences.Key<T> prefKey = getKey(key, def);
-        Single<T> value = dataStoreRX.data().firstOrError()
-                .map(prefs -> prefs.get(prefKey)).onErrorReturn(throwable -> def);
-        value.blockingSubscribe(consumer);
+        final T value = route(key).read(getKey(key, def));
+        try {
+            consumer.accept(value == null ? def : value);
+        } catch (Throwable throwable) {
+            Log.e(TAG, "Error while consuming value of " + key, throwable);
+        }
     }
     /**
      * Asynchronously writes a value which matches the given class
@@ -274,13 +480,7 @@ public class DataStoreEditor implements SharedPreferences, SharedPreferences.Edi
      * @param <T> Type of the value, should be derived automatically from tClass
      */
     public <T> void putValue(String key, @Nullable T value, Class<T> tClass) {
-        boolean returnvalue;
-        Preferences.Key<T> prefKey = getKey(key, tClass);
-        Single<Preferences> updateResult =  dataStoreRX.updateDataAsync(prefsIn -> {
-            MutablePreferences mutablePreferences = prefsIn.toMutablePreferences();
-            mutablePreferences.set(prefKey, value);
-            return Single.just(mutablePreferences);
-        });
+        putValue(key, value, tClass, false);
     }
     /**
      * Writes a value which matches the given class
@@ -290,13 +490,8 @@ public class DataStoreEditor implements SharedPreferences, SharedPreferences.Edi
      * @param <T> Type of the value, should be derived automatically from tClass
      */
     public <T> void putValue(String key, @Nullable T value, Class<T> tClass, boolean synchronous) {
-        boolean returnvalue;
         Preferences.Key<T> prefKey = getKey(key, tClass);
-        Single<Preferences> updateResult =  dataStoreRX.updateDataAsync(prefsIn -> {
-            MutablePreferences mutablePreferences = prefsIn.toMutablePreferences();
-            mutablePreferences.set(prefKey, value);
-            return Single.just(mutablePreferences);
-        });
+        Single<Preferences> updateResult = route(key).update(preferences -> preferences.set(prefKey, value));
         if (synchronous) { Preferences ignored = updateResult.blockingGet(); }
     }
 
@@ -316,13 +511,8 @@ public class DataStoreEditor implements SharedPreferences, SharedPreferences.Edi
      * @param <T> Type of the value, should be derived automatically from value
      */
     public <T> void putValue(String key, @NonNull T value, boolean synchronous) {
-        boolean returnvalue;
         Preferences.Key<T> prefKey = getKey(key, value);
-        Single<Preferences> updateResult =  dataStoreRX.updateDataAsync(prefsIn -> {
-            MutablePreferences mutablePreferences = prefsIn.toMutablePreferences();
-            mutablePreferences.set(prefKey, value);
-            return Single.just(mutablePreferences);
-        });
+        Single<Preferences> updateResult = route(key).update(preferences -> preferences.set(prefKey, value));
         if (synchronous) { Preferences ignored = updateResult.blockingGet(); }
     }
 
@@ -342,28 +532,17 @@ public class DataStoreEditor implements SharedPreferences, SharedPreferences.Edi
      * @param <T> Type of the value, should be derived automatically from tClass
      */
     public <T> void removeValue(String key, Class<T> tClass, boolean synchronous){
-        boolean returnvalue;
         Preferences.Key<T> prefKey = getKey(key, tClass);
-        @SuppressLint("UnsafeOptInUsageWarning")
-        Single<Preferences> updateResult =  dataStoreRX.updateDataAsync(prefsIn -> {
-            MutablePreferences mutablePreferences = prefsIn.toMutablePreferences();
-            T remove = mutablePreferences.remove(prefKey);
-            return Single.just(mutablePreferences);
-        });
+        Single<Preferences> updateResult = route(key).update(preferences -> preferences.remove(prefKey));
         if (synchronous) { Preferences ignored = updateResult.blockingGet(); }
     }
 
     /**
-     * Asynchronously clears ALL data in the store
+     * Asynchronously clears ALL data in the store, and any stores it's partitioned into
      */
     public DataStoreEditor clear(){
-        boolean returnvalue;
-        @SuppressLint("UnsafeOptInUsageWarning")
-        Single<Preferences> updateResult =  dataStoreRX.updateDataAsync(prefsIn -> {
-            MutablePreferences mutablePreferences = prefsIn.toMutablePreferences();
-            mutablePreferences.clear();
-            return Single.just(mutablePreferences);
-        });
+        update(MutablePreferences::clear);
+        for (DataStoreEditor partition : partitions.values()) partition.clear();
         return this;
     }
 
@@ -547,28 +726,196 @@ public class DataStoreEditor implements SharedPreferences, SharedPreferences.Edi
     }
 
     /**
-     * Commit/apply is no longer needed, and does nothing.
-     * Keep in mind that all write operations are performed asynchronously.
+     * Commit/apply is not needed when writing directly, and does nothing.
+     * Keep in mind that direct write operations are performed asynchronously.
+     * Use {@link #edit()} to make several changes in a single write.
      */
     @Deprecated
     public boolean commit() {return false;}
 
     /**
-     * Commit/apply is no longer needed, and does nothing.
-     * Keep in mind that all write operations are performed asynchronously.
+     * Commit/apply is not needed when writing directly, and does nothing.
+     * Keep in mind that direct write operations are performed asynchronously.
+     * Use {@link #edit()} to make several changes in a single write.
      */
     @Deprecated
     public void apply() {}
 
     // Compat (sharedpref)
     /**
-     * This is included for compatiblity, but simply returns the same object,
-     * which implements both SharedPreferences and SharedPreferences.Editor
+     * Starts a batch of changes, which are written together in a single update when
+     * {@link Batch#apply()} or {@link Batch#commit()} is called.
+     * <p>
+     * Every write otherwise rewrites the whole data store file, so this should be used
+     * whenever more than one value is changed at once.
      */
     @Override
-    @Deprecated
-    public DataStoreEditor edit() {
-        return this;
+    public Batch edit() {
+        return new Batch();
+    }
+
+    /**
+     * A set of changes which are made together, in a single update of the data store
+     * (or of each data store the changed keys are partitioned into).
+     * <p>
+     * This behaves like the editor of {@link SharedPreferences}: nothing is changed until
+     * {@link #apply()} or {@link #commit()} is called, at which point a {@link #clear()} is done
+     * first (regardless of the order it was called in), then each change in order.
+     * Putting a null value removes the key.
+     * Once applied, changes are immediately visible to reads, as with any other write.
+     */
+    public class Batch implements SharedPreferences.Editor {
+        private final Map<DataStoreEditor, List<Edit>> editsByStore = new HashMap<>();
+        private boolean clear = false;
+
+        private Batch() {}
+
+        private void add(String key, Edit edit) {
+            final DataStoreEditor target = route(key);
+            List<Edit> edits = editsByStore.get(target);
+            if (edits == null) {
+                edits = new ArrayList<>();
+                editsByStore.put(target, edits);
+            }
+            edits.add(edit);
+        }
+        private synchronized <T> Batch put(String key, @Nullable T value, Class<T> tClass) {
+            Preferences.Key<T> prefKey = getKey(key, tClass);
+            if (value == null) add(key, preferences -> preferences.remove(prefKey));
+            else add(key, preferences -> preferences.set(prefKey, value));
+            return this;
+        }
+        private synchronized <T> Batch removeValue(String key, Class<T> tClass) {
+            Preferences.Key<T> prefKey = getKey(key, tClass);
+            add(key, preferences -> preferences.remove(prefKey));
+            return this;
+        }
+
+        /** Puts a value of any supported type, which is derived from the value */
+        public synchronized <T> Batch putValue(String key, @NonNull T value) {
+            Preferences.Key<T> prefKey = getKey(key, value);
+            add(key, preferences -> preferences.set(prefKey, value));
+            return this;
+        }
+
+        @Override
+        public Batch putString(String key, @Nullable String value) {
+            return put(key, value, String.class);
+        }
+        @Override
+        public Batch putInt(String key, int value) {
+            return put(key, value, Integer.class);
+        }
+        @Override
+        public Batch putLong(String key, long value) {
+            return put(key, value, Long.class);
+        }
+        @Override
+        public Batch putFloat(String key, float value) {
+            return put(key, value, Float.class);
+        }
+        public Batch putDouble(String key, double value) {
+            return put(key, value, Double.class);
+        }
+        @Override
+        public Batch putBoolean(String key, boolean value) {
+            return put(key, value, Boolean.class);
+        }
+        /** The set is copied, so it may be modified after this is called */
+        @Override
+        public Batch putStringSet(String key, @Nullable Set<String> value) {
+            //noinspection unchecked
+            return put(key, value == null ? null : new HashSet<>(value), Set.class);
+        }
+
+        public Batch removeString(String key) {
+            return removeValue(key, String.class);
+        }
+        public Batch removeInt(String key) {
+            return removeValue(key, Integer.class);
+        }
+        public Batch removeLong(String key) {
+            return removeValue(key, Long.class);
+        }
+        public Batch removeFloat(String key) {
+            return removeValue(key, Float.class);
+        }
+        public Batch removeDouble(String key) {
+            return removeValue(key, Double.class);
+        }
+        public Batch removeBoolean(String key) {
+            return removeValue(key, Boolean.class);
+        }
+        public Batch removeStringSet(String key) {
+            return removeValue(key, Set.class);
+        }
+        /**
+         * Removes a key of any type.
+         * It's recommended to use typed remove functions instead.
+         * @noinspection rawtypes
+         */
+        @Override
+        public Batch remove(String key) {
+            for (Class tClass : classes) {
+                //noinspection unchecked
+                removeValue(key, tClass);
+            }
+            return this;
+        }
+        /** Clears ALL data in the store, before any other changes in this batch are made */
+        @Override
+        public synchronized Batch clear() {
+            clear = true;
+            return this;
+        }
+
+        /**
+         * Takes the changes made so far as a single edit for each data store,
+         * so the batch can be reused
+         * @return The combined edit of each data store which has changes
+         */
+        private synchronized Map<DataStoreEditor, Edit> take() {
+            Map<DataStoreEditor, Edit> editByStore = new HashMap<>();
+            if (clear) {
+                editByStore.put(DataStoreEditor.this, MutablePreferences::clear);
+                for (DataStoreEditor partition : partitions.values())
+                    editByStore.put(partition, MutablePreferences::clear);
+            }
+            for (Map.Entry<DataStoreEditor, List<Edit>> entry : editsByStore.entrySet()) {
+                final Edit clearEdit = editByStore.get(entry.getKey());
+                final List<Edit> taken = entry.getValue();
+                editByStore.put(entry.getKey(), preferences -> {
+                    if (clearEdit != null) clearEdit.apply(preferences);
+                    for (Edit edit : taken) edit.apply(preferences);
+                });
+            }
+            editsByStore.clear();
+            clear = false;
+            return editByStore;
+        }
+
+        /** Writes the changes in a single update, waiting until they've been saved */
+        @Override
+        public boolean commit() {
+            List<Single<Preferences>> updateResults = new ArrayList<>();
+            for (Map.Entry<DataStoreEditor, Edit> entry : take().entrySet())
+                updateResults.add(entry.getKey().update(entry.getValue()));
+            try {
+                for (Single<Preferences> updateResult : updateResults) {
+                    Preferences ignored = updateResult.blockingGet();
+                }
+                return true;
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Failed to commit batch", e);
+                return false;
+            }
+        }
+        /** Asynchronously writes the changes in a single update */
+        @Override
+        public void apply() {
+            for (Map.Entry<DataStoreEditor, Edit> entry : take().entrySet())
+                entry.getKey().update(entry.getValue());
+        }
     }
 
     /**
@@ -600,7 +947,11 @@ public class DataStoreEditor implements SharedPreferences, SharedPreferences.Edi
         return ret;
     }
     private Map<Preferences.Key<?>, ?> getAllKeyVal() {
-        return dataStoreRX.data().blockingFirst().asMap();
+        Map<Preferences.Key<?>, Object> all = new HashMap<>();
+        final Preferences preferences = snapshot.get();
+        if (preferences != null) all.putAll(preferences.asMap());
+        for (DataStoreEditor partition : partitions.values()) all.putAll(partition.getAllKeyVal());
+        return all;
     }
 }
 
@@ -16,6 +16,7 @@ import com.threethan.launchercore.lib.StringLib;
 import com.threethan.launchercore.util.App;
 import com.threethan.launchercore.util.Platform;
 
+import java.io.File;
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -28,6 +29,10 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 /**
  * An instance of this class is tied to each launcher activity, and it is used to get and store
@@ -51,13 +56,29 @@ public class SettingsManager extends Settings {
     }
 
     //storage
+    /** Data store of per-app records, such as custom labels and launch options */
+    public static final String DATA_STORE_APPS = "apps";
+    /** Data store of state which changes often, such as the selected groups */
+    public static final String DATA_STORE_STATE = "state";
     private static DataStoreEditor dataStoreEditor = null;
     private static DataStoreEditor dataStoreEditorSort = null;
+    /** Group of each app, stored separately since it changes far more often than the rest */
+    private static final AppGroupStore appGroupStore = new AppGroupStore("app-groups.log");
     private final WeakReference<LauncherActivity> myLauncherActivityRef;
     private static ConcurrentHashMap<String, String> appGroupMap = new ConcurrentHashMap<>();
     private static Set<String> appGroupsSet = Collections.synchronizedSet(new HashSet<>());
     private Set<String> selectedGroupsSet = Collections.synchronizedSet(new HashSet<>());
     private static final Map<Context, SettingsManager> instanceByContext = Collections.synchronizedMap(new HashMap<>());
+
+    // Write-behind for groups, since they may be changed many times in quick succession.
+    // Reads always use the in-memory state, which is only read from the store when empty.
+    private static final long WRITE_DELAY_MS = 1500;
+    private static final ScheduledExecutorService writeExecutor
+            = Executors.newSingleThreadScheduledExecutor();
+    private static boolean groupsDirty = false;
+    @Nullable private static ScheduledFuture<?> pendingGroupsWrite = null;
+    private volatile boolean selectedGroupsDirty = false;
+    @Nullable private ScheduledFuture<?> pendingSelectedGroupsWrite = null;
     private SettingsManager(LauncherActivity activity) {
         myLauncherActivityRef = new WeakReference<>(activity);
         dataStoreEditor = activity.dataStoreEditor;
@@ -66,6 +87,20 @@ public class SettingsManager extends Settings {
         Settings.DEFAULT_DETAILS_LONG_PRESS = Platform.isTv();
     }
 
+    /**
+     * Chooses which data store each key of the main data store is actually kept in,
+     * so frequent writes of per-app records or state don't rewrite the rest of the settings
+     * @return The name of the data store, or null for the main one
+     */
+    @Nullable
+    public static String dataStoreForKey(String key) {
+        if (key.equals(KEY_SELECTED_GROUPS)) return DATA_STORE_STATE;
+        // Custom labels are keyed by package name or url, which are the only keys with dots
+        if (key.startsWith(KEY_LAUNCH_SIZE) || key.startsWith(KEY_LAUNCH_BROWSER)
+                || key.contains(".")) return DATA_STORE_APPS;
+        return null;
+    }
+
     /**
      * Returns a unique instance for the given context,
      * but always the same instance for the same context
@@ -154,11 +189,11 @@ public class SettingsManager extends Settings {
     public void setAppGroup(String packageName, String group) {
         getAppGroupMap();
         appGroupMap.put(packageName, group);
-        storeValues();
+        writeGroupsAndSortLater();
     }
     public static void setAppGroupMap(Map<String, String> value) {
         appGroupMap = new ConcurrentHashMap<>(value);
-        writeGroupsAndSort();
+        writeGroupsAndSortLater();
     }
 
     /**
@@ -220,7 +255,7 @@ public class SettingsManager extends Settings {
      */
     public void setAppGroups(Set<String> appGroups) {
         appGroupsSet = Collections.synchronizedSet(appGroups);
-        storeValues();
+        writeGroupsAndSortLater();
     }
 
     /**
@@ -241,7 +276,8 @@ public class SettingsManager extends Settings {
      * @return Set of selected groups
      */
     public Set<String> getSelectedGroups() {
-        if (selectedGroupsSet.isEmpty()) {
+        // An empty selection which hasn't been written yet is intentional
+        if (selectedGroupsSet.isEmpty() && !selectedGroupsDirty) {
             selectedGroupsSet.addAll(dataStoreEditor.getStringSet(KEY_SELECTED_GROUPS, getDefaultGroupsSet()));
         }
         if (myLauncherActivityRef.get() != null &&
@@ -269,7 +305,7 @@ public class SettingsManager extends Settings {
      */
     public void setSelectedGroups(Set<String> appGroups) {
         selectedGroupsSet = Collections.synchronizedSet(appGroups);
-        storeValues();
+        writeSelectedGroupsLater();
     }
 
     /**
@@ -305,14 +341,27 @@ public class SettingsManager extends Settings {
      * Resets all groups and sorting
      */
     public void resetGroupsAndSort(){
-        for (String group : appGroupsSet)
-            dataStoreEditorSort.removeStringSet(KEY_GROUP_APP_LIST + group);
+        synchronized (SettingsManager.class) {
+            // Pending writes would restore the old groups
+            cancelGroupsWrite();
+            groupsDirty = false;
+        }
+        synchronized (this) {
+            if (pendingSelectedGroupsWrite != null) pendingSelectedGroupsWrite.cancel(false);
+            selectedGroupsDirty = false;
+        }
+        DataStoreEditor.Batch batch = dataStoreEditorSort.edit();
         appGroupsSet.clear();
         appGroupMap.clear();
-        dataStoreEditorSort.removeStringSet(KEY_GROUPS);
+        appGroupStore.clear();
+        batch.removeStringSet(KEY_GROUPS);
         dataStoreEditor.removeStringSet(KEY_SELECTED_GROUPS);
+        // Applied before groups are read again, so the defaults are read
+        batch.apply();
+        batch = dataStoreEditorSort.edit();
         for (String group : getAppGroups())
-            dataStoreEditorSort.removeStringSet(group);
+            batch.removeStringSet(group);
+        batch.apply();
 
         readGroupsAndSort();
         writeGroupsAndSort();
@@ -327,6 +376,8 @@ public class SettingsManager extends Settings {
      */
     private static synchronized void readGroupsAndSort
     () {
+        // The store must have any changes which haven't been written yet
+        if (groupsDirty) writeGroupsAndSort();
         try {
             appGroupsSet.clear();
             appGroupsSet.addAll(dataStoreEditorSort.getStringSet(KEY_GROUPS, getDefaultGroupsSet()));
@@ -335,46 +386,153 @@ public class SettingsManager extends Settings {
 
             appGroupsSet.add(Settings.HIDDEN_GROUP);
             appGroupsSet.add(Settings.UNSUPPORTED_GROUP);
-            for (String group : appGroupsSet) {
-                Set<String> appListSet = new HashSet<>();
-                appListSet = dataStoreEditorSort.getStringSet(KEY_GROUP_APP_LIST + group, appListSet);
-                for (String app : appListSet) appGroupMap.put(app, group);
-            }
+            final Map<String, String> groupByPackage = appGroupStore.exists()
+                    ? appGroupStore.getAll() : migrateGroupAppLists();
+            for (Map.Entry<String, String> entry : groupByPackage.entrySet())
+                if (appGroupsSet.contains(entry.getValue()))
+                    appGroupMap.put(entry.getKey(), entry.getValue());
 
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
-    synchronized private void storeValues() {
-        dataStoreEditor.putStringSet(KEY_SELECTED_GROUPS, selectedGroupsSet);
-        writeGroupsAndSort();
+    /**
+     * Moves the group of each app from the sets of apps which were previously stored
+     * for each group into the app group store, then removes the sets.
+     * If the store can't be written, the sets are kept so it can be tried again.
+     * @return The group of each app
+     */
+    private static Map<String, String> migrateGroupAppLists() {
+        Map<String, String> groupByPackage = new HashMap<>();
+        DataStoreEditor.Batch batch = dataStoreEditorSort.edit();
+        Set<String> groups = dataStoreEditorSort.getStringSet(KEY_GROUPS, getDefaultGroupsSet());
+        groups.add(Settings.HIDDEN_GROUP);
+        groups.add(Settings.UNSUPPORTED_GROUP);
+        for (String group : groups) {
+            Set<String> appListSet = dataStoreEditorSort.getStringSet(
+                    KEY_GROUP_APP_LIST + group, new HashSet<>());
+            for (String app : appListSet) groupByPackage.put(app, group);
+            batch.removeStringSet(KEY_GROUP_APP_LIST + group);
+        }
+        if (appGroupStore.putAll(groupByPackage)) {
+            batch.apply();
+            Log.i("Groups (SettingsManager)",
+                    "Migrated groups of " + groupByPackage.size() + " apps to app group store");
+        } else {
+            // Deleted so the store doesn't seem to exist, and is migrated into again
+            appGroupStore.delete();
+            Log.e("Groups (SettingsManager)", "Failed to migrate groups to app group store");
+        }
+        return groupByPackage;
     }
 
     /**
-     * Writes the current sorting of apps and set of groups to the dataStore
+     * Gets the contents of the sort data store for exporting, including the apps of each group
+     * in the format they were stored in before they were moved to {@link AppGroupStore}
+     */
+    public static synchronized Map<String, ?> getGroupsAndSortForExport() {
+        if (groupsDirty) writeGroupsAndSort();
+        Map<String, Object> export = new HashMap<>(dataStoreEditorSort.getAll());
+        Map<String, Set<String>> appListSetMap = new HashMap<>();
+        final Map<String, String> groupByPackage = appGroupStore.exists()
+                ? appGroupStore.getAll() : migrateGroupAppLists();
+        for (Map.Entry<String, String> entry : groupByPackage.entrySet()) {
+            Set<String> appListSet = appListSetMap.get(entry.getValue());
+            if (appListSet == null) {
+                appListSet = new HashSet<>();
+                appListSetMap.put(entry.getValue(), appListSet);
+            }
+            appListSet.add(entry.getKey());
+        }
+        for (Map.Entry<String, Set<String>> entry : appListSetMap.entrySet())
+            export.put(KEY_GROUP_APP_LIST + entry.getKey(), entry.getValue());
+        return export;
+    }
+    /**
+     * Replaces the sort data store with an exported one. The groups of apps are migrated
+     * from it when groups are next read, which should be after the launcher restarts.
+     */
+    public static synchronized void importGroupsAndSort(File export) {
+        cancelGroupsWrite();
+        groupsDirty = false;
+        dataStoreEditorSort.copyFrom(export);
+        appGroupStore.delete();
+    }
+
+    /** Writes the selected groups once they haven't changed for a while */
+    private synchronized void writeSelectedGroupsLater() {
+        selectedGroupsDirty = true;
+        if (pendingSelectedGroupsWrite != null) pendingSelectedGroupsWrite.cancel(false);
+        pendingSelectedGroupsWrite = writeExecutor.schedule(this::writeSelectedGroups,
+                WRITE_DELAY_MS, TimeUnit.MILLISECONDS);
+    }
+    private synchronized void writeSelectedGroups() {
+        if (pendingSelectedGroupsWrite != null) pendingSelectedGroupsWrite.cancel(false);
+        pendingSelectedGroupsWrite = null;
+        if (!selectedGroupsDirty) return;
+        selectedGroupsDirty = false;
+        final Set<String> selectedGroups;
+        synchronized (selectedGroupsSet) {
+            selectedGroups = new HashSet<>(selectedGroupsSet);
+        }
+        dataStoreEditor.putStringSet(KEY_SELECTED_GROUPS, selectedGroups);
+    }
+    /** Writes the groups and sorting of apps once they haven't changed for a while */
+    private static synchronized void writeGroupsAndSortLater() {
+        groupsDirty = true;
+        cancelGroupsWrite();
+        pendingGroupsWrite = writeExecutor.schedule(() -> {
+            synchronized (SettingsManager.class) {
+                if (groupsDirty) writeGroupsAndSort();
+            }
+        }, WRITE_DELAY_MS, TimeUnit.MILLISECONDS);
+    }
+    private static synchronized void cancelGroupsWrite() {
+        if (pendingGroupsWrite != null) pendingGroupsWrite.cancel(false);
+        pendingGroupsWrite = null;
+    }
+
+    /**
+     * Immediately writes any changes to groups or the selection of groups
+     * which are waiting to be written. Should be called when the activity is paused.
+     */
+    public void flushWrites() {
+        writeSelectedGroups();
+        synchronized (SettingsManager.class) {
+            if (groupsDirty) writeGroupsAndSort();
+        }
+    }
+
+    /**
+     * Writes the current sorting of apps and set of groups to the dataStore,
+     * including any changes which were waiting to be written
      */
     public synchronized static void writeGroupsAndSort() {
+        cancelGroupsWrite();
+        groupsDirty = false;
         try {
-            DataStoreEditor editor = dataStoreEditorSort;
-            editor.putStringSet(KEY_GROUPS, appGroupsSet);
+            final Set<String> groups;
+            synchronized (appGroupsSet) {
+                groups = new HashSet<>(appGroupsSet);
+            }
+            if (!groups.equals(dataStoreEditorSort.getStringSet(KEY_GROUPS, new HashSet<>())))
+                dataStoreEditorSort.putStringSet(KEY_GROUPS, groups);
 
-            Map<String, Set<String>> appListSetMap = new HashMap<>();
-            for (String group : appGroupsSet) appListSetMap.put(group, new HashSet<>());
+            Map<String, String> groupByPackage = new HashMap<>();
             for (String pkg : appGroupMap.keySet()) {
-                Set<String> group = appListSetMap.get(appGroupMap.get(pkg));
-                if (group == null) group = appListSetMap.get(
-                        AppExt.getDefaultGroupFor(App.Type.PHONE));
-                if (group == null) {
+                String group = appGroupMap.get(pkg);
+                if (!groups.contains(group)) group = AppExt.getDefaultGroupFor(App.Type.PHONE);
+                if (!groups.contains(group)) {
                     Log.w("Group was null", pkg);
-                    group = appListSetMap.get(HIDDEN_GROUP);
+                    group = HIDDEN_GROUP;
                     appGroupMap.put(pkg, HIDDEN_GROUP);
                 }
-                assert group != null;
-                group.add(pkg);
-            }
-            for (String group : appGroupsSet) {
-                editor.putStringSet(KEY_GROUP_APP_LIST + group, appListSetMap.get(group));
+                groupByPackage.put(pkg, group);
             }
+            // Only apps whose group changed are written
+            if (!appGroupStore.exists()) migrateGroupAppLists();
+            // Left dirty on failure, so it's written again with the next change or flush
+            if (!appGroupStore.putAll(groupByPackage)) groupsDirty = true;
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -92,6 +92,17 @@ public abstract class Settings {
     public static final int MIN_SCALE = 60;
     public static final int DEFAULT_MARGIN = 20;
 
+    // Storage
+    public static final String KEY_ICON_CACHE_QUOTA_MB = "KEY_ICON_CACHE_QUOTA_MB";
+    public static final int DEFAULT_ICON_CACHE_QUOTA_MB = 32;
+    public static final int MAX_ICON_CACHE_QUOTA_MB = 128;
+    public static final int MIN_ICON_CACHE_QUOTA_MB = 4;
+
+    // Icon pack
+    /** Package of the icon pack to apply, or empty for none */
+    public static final String KEY_ICON_PACK = "KEY_ICON_PACK";
+    public static final String DEFAULT_ICON_PACK = "";
+
 
     public static final String KEY_EDIT_MODE = "KEY_EDIT_MODE";
     public static final String KEY_SEEN_HIDDEN_GROUPS_POPUP = "KEY_SEEN_HIDDEN_GROUPS_POPUP";
@@ -0,0 +1,178 @@
+package com.threethan.launcher.helper;
+
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.text.format.Formatter;
+import android.util.Log;
+
+import com.threethan.launcher.R;
+import com.threethan.launcher.activity.support.DataStoreEditor;
+import com.threethan.launcher.data.Settings;
+import com.threethan.launcher.updater.RemotePackageUpdater;
+import com.threethan.launchercore.icon.IconLoader;
+import com.threethan.launchercore.icon.IconUpdater;
+import com.threethan.launchercore.lib.StringLib;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Keeps the launcher's on-disk caches from growing without bound.
+ * <p>
+ * When run, downloaded icons of apps and websites which are no longer on the launcher are removed
+ * along with their icon schedule, the least recently used downloaded icons are evicted until the
+ * cache fits within its quota, and leftover apks from addon updates are deleted.
+ * Custom icons are never removed, since they can't be downloaded again.
+ */
+public abstract class CacheManager {
+    private static final String TAG = "CacheManager";
+    /** Minimum time between runs, since packages may be refreshed often */
+    private static final long MIN_RUN_INTERVAL_MS = 10 * 60 * 1000;
+    /** Apks older than this have either been installed or abandoned */
+    private static final long APK_MAX_AGE_MS = 24 * 60 * 60 * 1000;
+
+    private static final AtomicBoolean running = new AtomicBoolean(false);
+    private static long lastRunMs = 0;
+
+    /**
+     * Cleans caches on a background thread, unless that was done recently.
+     * Should be called after the list of installed packages changes.
+     */
+    public static void runIfDue(Context context, DataStoreEditor dataStoreEditor) {
+        if (System.currentTimeMillis() - lastRunMs < MIN_RUN_INTERVAL_MS) return;
+        if (!running.compareAndSet(false, true)) return;
+        lastRunMs = System.currentTimeMillis();
+
+        final long quotaBytes = getQuotaMb(dataStoreEditor) * 1024L * 1024L;
+        final Set<String> websites = dataStoreEditor
+                .getStringSet(Settings.KEY_WEBSITE_LIST, Collections.emptySet());
+        Thread thread = new Thread(() -> {
+            try {
+                run(context, quotaBytes, websites);
+            } catch (Exception e) {
+                e.printStackTrace();
+            } finally {
+                running.set(false);
+            }
+        });
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    private static void run(Context context, long quotaBytes, Set<String> websites) {
+        int removed = 0;
+        int pruned = 0;
+        final Map<String, String> packageByCacheName = getLauncherPackagesByCacheName(websites);
+        if (packageByCacheName != null) {
+            removed = IconLoader.cacheStore
+                    .removeIf(key -> !packageByCacheName.containsKey(cacheNameForKey(key))).size();
+            // Also forgets the schedule of removed apps, including any with no stored icon
+            final Set<String> keptPackages = new HashSet<>(packageByCacheName.values());
+            pruned = IconUpdater.schedule.retain(keptPackages::contains,
+                    key -> packageByCacheName.containsKey(cacheNameForKey(key)));
+        }
+        final List<String> evicted = IconLoader.cacheStore.evictToSize(quotaBytes);
+        for (String key : evicted) {
+            // Evicted icons must be downloaded again when they're next shown
+            final String cacheName = cacheNameForKey(key);
+            final String packageName = packageByCacheName == null ? null
+                    : packageByCacheName.get(cacheName);
+            IconUpdater.schedule.remove(packageName == null ? cacheName : packageName);
+            IconUpdater.schedule.removeIconKey(key);
+        }
+        IconLoader.cacheStore.saveUsage();
+        final int apks = deleteOldApks(context);
+
+        Log.v(TAG, "Removed " + removed + " icons of removed apps, evicted " + evicted.size()
+                + " icons over quota, pruned " + pruned + " icon schedule entries, deleted "
+                + apks + " apks");
+    }
+
+    /**
+     * Gets the package name of every app and website which may be shown on the launcher,
+     * by the cache name of its icons
+     * @return The package names, or null if packages haven't been loaded yet
+     */
+    private static Map<String, String> getLauncherPackagesByCacheName(Set<String> websites) {
+        if (PlatformExt.installedApps == null || PlatformExt.installedApps.isEmpty()) return null;
+        Map<String, String> packageByCacheName = new HashMap<>();
+        for (ApplicationInfo app : new ArrayList<>(PlatformExt.installedApps))
+            packageByCacheName.put(IconLoader.cacheName(app), app.packageName);
+        for (ApplicationInfo app : new ArrayList<>(PlatformExt.apps))
+            packageByCacheName.put(IconLoader.cacheName(app), app.packageName);
+        for (String website : websites)
+            packageByCacheName.put(StringLib.toValidFilename(website), website);
+        return packageByCacheName;
+    }
+    /**
+     * Inverse of {@link IconLoader#iconKeyForApp(ApplicationInfo)},
+     * also accepting the keys of rasterized package manager icons
+     */
+    private static String cacheNameForKey(String key) {
+        if (key.endsWith(IconLoader.PACKAGE_ICON_SUFFIX))
+            key = key.substring(0, key.length() - IconLoader.PACKAGE_ICON_SUFFIX.length());
+        return key.endsWith("-banner") ? key.substring(0, key.length() - "-banner".length()) : key;
+    }
+
+    private static File apkFolder(Context context) {
+        return new File(context.getExternalCacheDir(), RemotePackageUpdater.APK_FOLDER);
+    }
+    /**
+     * Deletes downloaded apks which are too old to still be waiting to be installed
+     * @return The number of apks deleted
+     */
+    private static int deleteOldApks(Context context) {
+        File[] files = apkFolder(context).listFiles();
+        if (files == null) return 0;
+        int deleted = 0;
+        for (File file : files)
+            if (System.currentTimeMillis() - file.lastModified() > APK_MAX_AGE_MS && file.delete())
+                deleted++;
+        return deleted;
+    }
+    private static long folderSizeBytes(File folder) {
+        File[] files = folder.listFiles();
+        if (files == null) return 0;
+        long size = 0;
+        for (File file : files) size += file.isDirectory() ? folderSizeBytes(file) : file.length();
+        return size;
+    }
+
+    /** @return The configured maximum size of downloaded icons, in megabytes */
+    public static int getQuotaMb(DataStoreEditor dataStoreEditor) {
+        return dataStoreEditor.getInt(Settings.KEY_ICON_CACHE_QUOTA_MB,
+                Settings.DEFAULT_ICON_CACHE_QUOTA_MB);
+    }
+    /**
+     * Sets the maximum size of downloaded icons, and applies it immediately
+     * @param quotaMb New quota, in megabytes
+     */
+    public static void setQuotaMb(Context context, DataStoreEditor dataStoreEditor, int quotaMb) {
+        dataStoreEditor.putInt(Settings.KEY_ICON_CACHE_QUOTA_MB, quotaMb);
+        lastRunMs = 0;
+        runIfDue(context, dataStoreEditor);
+    }
+
+    /**
+     * Describes how much storage each cache is using.
+     * This reads the icon stores, so it shouldn't be called on the ui thread.
+     * @return A user-readable summary
+     */
+    public static String describe(Context context, DataStoreEditor dataStoreEditor) {
+        return context.getString(R.string.storage_stats,
+                IconLoader.cacheStore.size(),
+                Formatter.formatShortFileSize(context, IconLoader.cacheStore.sizeBytes()),
+                Formatter.formatShortFileSize(context,
+                        getQuotaMb(dataStoreEditor) * 1024L * 1024L),
+                IconLoader.customStore.size(),
+                Formatter.formatShortFileSize(context, IconLoader.customStore.sizeBytes()),
+                Formatter.formatShortFileSize(context, folderSizeBytes(apkFolder(context))));
+    }
+}
@@ -11,8 +11,8 @@ import com.threethan.launcher.activity.support.SettingsManager;
 import com.threethan.launcher.data.Settings;
 import com.threethan.launchercore.Core;
 import com.threethan.launchercore.icon.IconLoader;
+import com.threethan.launchercore.icon.IconRepo;
 import com.threethan.launchercore.icon.IconUpdater;
-import com.threethan.launchercore.lib.FileLib;
 import com.threethan.launchercore.lib.StringLib;
 import com.threethan.launchercore.util.App;
 import com.threethan.launchercore.util.Platform;
@@ -35,7 +35,7 @@ import java.util.concurrent.ConcurrentHashMap;
  */
 public abstract class Compat {
     public static final String KEY_COMPATIBILITY_VERSION = "KEY_COMPATIBILITY_VERSION";
-    public static final int CURRENT_COMPATIBILITY_VERSION = 10;
+    public static final int CURRENT_COMPATIBILITY_VERSION = 11;
     public static final boolean DEBUG_COMPATIBILITY = false;
     private static final String TAG = "Compatibility";
 
@@ -76,7 +76,13 @@ public abstract class Compat {
             if (storedVersion > Compat.CURRENT_COMPATIBILITY_VERSION)
                 Log.e(TAG, "Previous version greater than current!");
             // If updated
-            for (int version = 0; version <= Compat.CURRENT_COMPATIBILITY_VERSION; version++) {
+            // Only versions after the stored one are run, since they'd otherwise be repeated on
+            // every update (and some, like clearing icons, are destructive). Version 0 means
+            // the settings are from before versions were stored, so need every update.
+            final int firstVersion = storedVersion == 0 ? 0 : storedVersion + 1;
+            for (int version = firstVersion; version <= Compat.CURRENT_COMPATIBILITY_VERSION; version++) {
+                // Changes of each version are written together, and are visible to the next
+                DataStoreEditor.Batch batch = dataStoreEditor.edit();
                 if (SettingsManager.getVersionsWithBackgroundChanges().contains(version)) {
                     int backgroundIndex = dataStoreEditor.getInt(Settings.KEY_BACKGROUND,
                             Platform.isTv()
@@ -84,9 +90,9 @@ public abstract class Compat {
                                     : Settings.DEFAULT_BACKGROUND_VR);
 
                     if (backgroundIndex >= 0 && backgroundIndex < SettingsManager.BACKGROUND_DARK.length)
-                        dataStoreEditor.putBoolean(Settings.KEY_DARK_MODE, SettingsManager.BACKGROUND_DARK[backgroundIndex]);
+                        batch.putBoolean(Settings.KEY_DARK_MODE, SettingsManager.BACKGROUND_DARK[backgroundIndex]);
                     else if (storedVersion == 0)
-                        dataStoreEditor.putBoolean(Settings.KEY_DARK_MODE, Settings.DEFAULT_DARK_MODE);
+                        batch.putBoolean(Settings.KEY_DARK_MODE, Settings.DEFAULT_DARK_MODE);
                 }
 
                 switch (version) {
@@ -95,7 +101,7 @@ public abstract class Compat {
                                 Platform.isTv()
                                         ? Settings.DEFAULT_BACKGROUND_TV
                                         : Settings.DEFAULT_BACKGROUND_VR) == 6)
-                            dataStoreEditor.putInt(Settings.KEY_BACKGROUND, -1);
+                            batch.putInt(Settings.KEY_BACKGROUND, -1);
                         // Rename group to new default
                         renameGroup(launcherActivity, "Tools", "Apps");
                         break;
@@ -104,7 +110,7 @@ public abstract class Compat {
                                 Platform.isTv()
                                         ? Settings.DEFAULT_BACKGROUND_TV
                                         : Settings.DEFAULT_BACKGROUND_VR);
-                        if (bg > 2) dataStoreEditor.putInt(Settings.KEY_BACKGROUND, bg + 1);
+                        if (bg > 2) batch.putInt(Settings.KEY_BACKGROUND, bg + 1);
                         break;
                     case (2):
                         String from = dataStoreEditor.getString("KEY_DEFAULT_GROUP_VR",
@@ -122,7 +128,7 @@ public abstract class Compat {
                                         ? Settings.DEFAULT_BACKGROUND_TV
                                         : Settings.DEFAULT_BACKGROUND_VR);
                         if (backgroundIndex > 2)
-                            dataStoreEditor.putInt(Settings.KEY_BACKGROUND, backgroundIndex - 1);
+                            batch.putInt(Settings.KEY_BACKGROUND, backgroundIndex - 1);
                     case (6):
                         // Remap old default group settings
                         final Map<String, App.Type> oldDefKeyToType = new HashMap<>();
@@ -134,8 +140,8 @@ public abstract class Compat {
                         for (String key : oldDefKeyToType.keySet()) {
                             String val = dataStoreEditor.getString(key, null);
                             if (val != null) {
-                                dataStoreEditor.putString(Settings.KEY_DEFAULT_GROUP + oldDefKeyToType.get(key), val);
-                                dataStoreEditor.removeBoolean(key);
+                                batch.putString(Settings.KEY_DEFAULT_GROUP + oldDefKeyToType.get(key), val);
+                                batch.removeBoolean(key);
                             }
                         }
 
@@ -148,8 +154,8 @@ public abstract class Compat {
                         for (String key : oldWideKeyToType.keySet()) {
                             if (dataStoreEditor.contains(key)) {
                                 boolean val = dataStoreEditor.getBoolean(key, false);
-                                dataStoreEditor.putBoolean(Settings.KEY_BANNER + oldWideKeyToType.get(key), val);
-                                dataStoreEditor.removeBoolean(key);
+                                batch.putBoolean(Settings.KEY_BANNER + oldWideKeyToType.get(key), val);
+                                batch.removeBoolean(key);
                             }
                         }
                         break;
@@ -165,7 +171,11 @@ public abstract class Compat {
                     case (10):
                         clearIconCache(launcherActivity);
                         clearIcons(launcherActivity);
+                        break;
+                    case (11):
+                        partitionDataStore(launcherActivity);
                 }
+                batch.apply();
             }
             Log.i(TAG, String.format("Settings Updated from v%s to v%s (Settings versions are not the same as app versions)",
                     storedVersion, Compat.CURRENT_COMPATIBILITY_VERSION));
@@ -210,19 +220,23 @@ public abstract class Compat {
     // Clears all icons, including custom icons
     public static void clearIcons(LauncherActivity launcherActivity) {
         Log.i(TAG, "Icons are being cleared");
-        FileLib.delete(launcherActivity.getApplicationInfo().dataDir + IconLoader.ICON_CUSTOM_FOLDER);
+        IconLoader.runOnLoader(IconLoader.customStore::clear);
         clearIconCache(launcherActivity);
     }
     // Clears all icons, except for custom icons, and sets them to be re-downloaded
+    // The stores are cleared on the icon loader, so this is safe to call from the ui thread
     public static void clearIconCache(LauncherActivity launcherActivity) {
         Log.i(TAG, "Icon cache is being cleared");
-        FileLib.delete(launcherActivity.getApplicationInfo().dataDir + IconLoader.ICON_CACHE_FOLDER);
+        IconLoader.runOnLoader(() -> {
+            IconLoader.cacheStore.clear();
 
-        IconLoader.cachedIcons.clear();
-        IconUpdater.nextCheckByPackageMs.clear();
+            IconLoader.cachedIcons.evictAll();
+            IconUpdater.schedule.clear();
+            IconRepo.clear();
 
-        launcherActivity.launcherService.forEachActivity(a -> {
-            if (a.getAppAdapter() != null) a.getAppAdapter().notifyAllChanged();
+            launcherActivity.runOnUiThread(() -> launcherActivity.launcherService.forEachActivity(a -> {
+                if (a.getAppAdapter() != null) a.getAppAdapter().notifyAllChanged();
+            }));
         });
     }
     // Clears any custom labels assigned to apps, including whether they've been starred
@@ -230,7 +244,9 @@ public abstract class Compat {
         Log.i(TAG, "Labels are being cleared");
         SettingsManager.appLabelCache.clear();
         Set<String> setAll = launcherActivity.getAllPackages();
-        for (String packageName : setAll) launcherActivity.dataStoreEditor.removeString(packageName);
+        DataStoreEditor.Batch batch = launcherActivity.dataStoreEditor.edit();
+        for (String packageName : setAll) batch.removeString(packageName);
+        batch.apply();
 
         launcherActivity.launcherService.forEachActivity(a -> {
             if (a.getAppAdapter() != null) a.getAppAdapter().notifyAllChanged();
@@ -240,8 +256,10 @@ public abstract class Compat {
     public static void clearSort(LauncherActivity launcherActivity) {
         Log.i(TAG, "App sort is being cleared");
         Set<String> appGroupsSet = launcherActivity.dataStoreEditor.getStringSet(Settings.KEY_GROUPS, new HashSet<>());
+        DataStoreEditor.Batch batch = launcherActivity.dataStoreEditor.edit();
         for (String groupName : appGroupsSet)
-            launcherActivity.dataStoreEditor.removeStringSet(Settings.KEY_GROUP_APP_LIST + groupName);
+            batch.removeStringSet(Settings.KEY_GROUP_APP_LIST + groupName);
+        batch.apply();
         SettingsManager.getAppGroupMap().clear();
         launcherActivity.settingsManager.resetGroupsAndSort();
 
@@ -250,8 +268,10 @@ public abstract class Compat {
     }
     // Resets the group list to default, including default groups for sorting
     public static void resetDefaultGroups(LauncherActivity launcherActivity) {
+        DataStoreEditor.Batch batch = launcherActivity.dataStoreEditor.edit();
         for (App.Type type : PlatformExt.getSupportedAppTypes())
-            launcherActivity.dataStoreEditor.removeString(Settings.KEY_DEFAULT_GROUP + type);
+            batch.removeString(Settings.KEY_DEFAULT_GROUP + type);
+        batch.apply();
 
         launcherActivity.settingsManager.resetGroupsAndSort();
         clearSort(launcherActivity);
@@ -267,7 +287,29 @@ public abstract class Compat {
             a.refreshPackages();
         });
     }
+    // Moves per-app records and frequently changed state out of the main data store,
+    // into the separate data stores they're now kept in
+    private static void partitionDataStore(LauncherActivity launcherActivity) {
+        DataStoreEditor unpartitioned = new DataStoreEditor(launcherActivity);
+        DataStoreEditor.Batch moved = launcherActivity.dataStoreEditor.edit();
+        DataStoreEditor.Batch removed = unpartitioned.edit();
+        int count = 0;
+        for (Map.Entry<String, ?> entry : unpartitioned.getAll().entrySet()) {
+            if (SettingsManager.dataStoreForKey(entry.getKey()) == null) continue;
+            moved.putValue(entry.getKey(), entry.getValue());
+            removed.remove(entry.getKey());
+            count++;
+        }
+        // Only removed once they've been saved in their new stores
+        if (moved.commit()) removed.apply();
+        Log.i(TAG, "Moved " + count + " settings to partitioned data stores");
+    }
+    /**
+     * Gets the launcher's main data store. Some keys are transparently kept in other
+     * data stores, as chosen by {@link SettingsManager#dataStoreForKey(String)}
+     */
     public static DataStoreEditor getDataStore(Context context) {
-            return new DataStoreEditor(context);
+        return new DataStoreEditor(context, "default", SettingsManager::dataStoreForKey,
+                SettingsManager.DATA_STORE_APPS, SettingsManager.DATA_STORE_STATE);
     }
 }
@@ -0,0 +1,83 @@
+package com.threethan.launcher.helper;
+
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.util.Log;
+
+import com.threethan.launchercore.icon.IconUpdater;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Periodic maintenance job which refreshes the whole icon library in a single batched pass.
+ * <p>
+ * It only runs while the device is idle, charging and on an unmetered network, so icon downloads
+ * and encoding don't compete with the launcher while it's being used. Icons shown in the launcher
+ * are then only read from the cache, except for apps which have never been checked.
+ * <p>
+ * Icons are refreshed for the apps and websites of the running launcher, since whether each
+ * is shown as a banner depends on its settings. If the launcher hasn't loaded its apps yet,
+ * the job does nothing until it next runs.
+ */
+public class IconRefreshJob extends JobService {
+    private static final String TAG = "IconRefreshJob";
+    private static final int JOB_ID = 4201;
+    private static final long PERIOD_MS = 12 * 60 * 60 * 1000;
+
+    private volatile boolean stopped = false;
+
+    /**
+     * Schedules the job, unless it's already scheduled.
+     * Rescheduling would restart its period, so it's only done when missing.
+     */
+    public static void schedule(Context context) {
+        JobScheduler jobScheduler = context.getSystemService(JobScheduler.class);
+        if (jobScheduler == null || jobScheduler.getPendingJob(JOB_ID) != null) return;
+        JobInfo jobInfo = new JobInfo.Builder(JOB_ID,
+                new ComponentName(context, IconRefreshJob.class))
+                .setRequiresDeviceIdle(true)
+                .setRequiresCharging(true)
+                .setRequiredNetworkType(JobInfo.NETWORK_TYPE_UNMETERED)
+                .setPeriodic(PERIOD_MS)
+                .build();
+        if (jobScheduler.schedule(jobInfo) != JobScheduler.RESULT_SUCCESS)
+            Log.w(TAG, "Failed to schedule icon refresh");
+    }
+
+    @Override
+    public boolean onStartJob(JobParameters params) {
+        // Apps are only listed once the launcher has started, which also initializes its core
+        final List<ApplicationInfo> apps = new ArrayList<>(PlatformExt.apps);
+        if (apps.isEmpty()) return false;
+        stopped = false;
+
+        Thread thread = new Thread(() -> {
+            try {
+                final long startMs = System.currentTimeMillis();
+                final int checked = IconUpdater.refreshAll(apps, () -> stopped);
+                Log.v(TAG, "Checked " + checked + " of " + apps.size() + " icons in "
+                        + (System.currentTimeMillis() - startMs) + "ms");
+            } catch (Exception e) {
+                e.printStackTrace();
+            } finally {
+                if (!stopped) jobFinished(params, false);
+            }
+        });
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        // The device is in use again; icons which weren't reached are checked next time
+        stopped = true;
+        return false;
+    }
+}
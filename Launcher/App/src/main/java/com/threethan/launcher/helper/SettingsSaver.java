@@ -2,15 +2,15 @@ package com.threethan.launcher.helper;
 
 import android.app.Activity;
 
-import androidx.datastore.DataStoreFile;
-
 import com.threethan.launcher.R;
 import com.threethan.launcher.activity.LauncherActivity;
 import com.threethan.launcher.activity.dialog.BasicDialog;
 import com.threethan.launcher.activity.support.DataStoreEditor;
+import com.threethan.launcher.activity.support.SettingsManager;
 import com.threethan.launchercore.lib.FileLib;
 
 import java.io.File;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Timer;
 import java.util.TimerTask;
@@ -20,8 +20,6 @@ import java.util.TimerTask;
  * and an arbitrary user-accessible file in android/data/
  */
 public abstract class SettingsSaver {
-    private static final String DATA_STORE_NAME = "default";
-    private static final String DATA_STORE_NAME_SORT = "sort";
     public static final String EXPORT_FILE_NAME = "ExportedConfiguration.preferences_pb";
     public static final String EXPORT_FILE_NAME_SORT = "ExportedSort.preferences_pb";
 
@@ -31,7 +29,6 @@ public abstract class SettingsSaver {
      */
     public static void save(Activity activity) {
 
-        File prefs = DataStoreFile.dataStoreFile(activity, DATA_STORE_NAME+".preferences_pb");
         File exportPath = activity.getExternalFilesDir("");
         File export = new File(exportPath, EXPORT_FILE_NAME);
         assert exportPath != null;
@@ -39,7 +36,8 @@ public abstract class SettingsSaver {
         boolean ignored1 = Objects.requireNonNull(export.getParentFile()).mkdirs();
         FileLib.delete(export);
 
-        if (FileLib.copy(prefs, export) && FileLib.copy(prefs, export))
+        // Settings are split across several data stores, which are exported as one
+        if (write(export, Compat.getDataStore(activity).getAll()))
             BasicDialog.toast(activity.getString(R.string.saved_settings),
                 "Android/Data/"+activity.getPackageName()+"/"+EXPORT_FILE_NAME,
                 false);
@@ -47,7 +45,6 @@ public abstract class SettingsSaver {
     }
     public static void saveSort(Activity activity) {
 
-        File prefs = DataStoreFile.dataStoreFile(activity, DATA_STORE_NAME_SORT+".preferences_pb");
         File exportPath = activity.getExternalFilesDir("");
         File export = new File(exportPath, EXPORT_FILE_NAME_SORT);
         assert exportPath != null;
@@ -55,12 +52,18 @@ public abstract class SettingsSaver {
         boolean ignored1 = Objects.requireNonNull(export.getParentFile()).mkdirs();
         FileLib.delete(export);
 
-        if (FileLib.copy(prefs, export) && FileLib.copy(prefs, export))
+        if (write(export, SettingsManager.getGroupsAndSortForExport()))
             BasicDialog.toast(activity.getString(R.string.saved_settings),
                     "Android/Data/"+activity.getPackageName()+"/"+EXPORT_FILE_NAME_SORT,
                     false);
         else BasicDialog.toast(activity.getString(R.string.saved_settings_error));
     }
+    /** Writes preferences to a new data store file, so they can be loaded with copyFrom */
+    private static boolean write(File export, Map<String, ?> preferences) {
+        DataStoreEditor.Batch batch = new DataStoreEditor(export).edit().clear();
+        preferences.forEach(batch::putValue);
+        return batch.commit();
+    }
     /**
      * Loads the contents of the DataStore from a file.
      * <p>
@@ -73,7 +76,7 @@ public abstract class SettingsSaver {
 
         BasicDialog.toast(activity.getString(R.string.settings_load));
 
-        new DataStoreEditor(activity, DATA_STORE_NAME).copyFrom(export);
+        Compat.getDataStore(activity).copyFrom(export);
 
         BasicDialog.toast(activity.getString(R.string.saved_settings_loading));
         new Timer().schedule(new TimerTask() {
@@ -89,7 +92,7 @@ public abstract class SettingsSaver {
 
         BasicDialog.toast(activity.getString(R.string.settings_load));
 
-        new DataStoreEditor(activity, DATA_STORE_NAME_SORT).copyFrom(export);
+        SettingsManager.importGroupsAndSort(export);
 
         BasicDialog.toast(activity.getString(R.string.saved_settings_loading));
         new Timer().schedule(new TimerTask() {
@@ -34,7 +34,8 @@ public abstract class AppUpdater extends RemotePackageUpdater {
     private static final String URL_GITHUB_API_TEMPLATE =
             "https://api.github.com/repos/%s/releases/latest";
 
-    private final RequestQueue requestQueue;
+    /** Shared by all updaters, so they don't each start their own network threads and cache */
+    private static RequestQueue requestQueue;
 
     private static boolean updateAvailable = false;
 
@@ -77,7 +78,10 @@ public abstract class AppUpdater extends RemotePackageUpdater {
 
     public AppUpdater(Activity activity) {
         super(activity);
-        this.requestQueue = Volley.newRequestQueue(activity);
+        synchronized (AppUpdater.class) {
+            if (requestQueue == null)
+                requestQueue = Volley.newRequestQueue(activity.getApplicationContext());
+        }
     }
 
     /**
@@ -0,0 +1,219 @@
+package com.threethan.launchercore.icon;
+
+import android.content.ComponentCallbacks2;
+import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.util.Log;
+import android.util.LruCache;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.threethan.launchercore.lib.BitmapPool;
+import com.threethan.launchercore.lib.DelayLib;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * A size-aware LRU cache of icon drawables, keyed by {@link IconLoader#cacheName}.
+ * <p>
+ * Entries are weighed by the number of bytes their bitmap actually occupies, so the cache holds
+ * as many icons as fit in its budget rather than a fixed count. The least recently used icons
+ * are dropped first, and will simply be reloaded from disk if they're displayed again.
+ * <p>
+ * The cache also shrinks in tiers when the system signals memory pressure (see {@link #trimMemory})
+ * <p>
+ * Views which show icons report it through {@link #retain} and {@link #release}.
+ * Once such an icon has left the cache and is no longer shown by any view,
+ * its bitmap is given to the {@link BitmapPool} to be decoded into again.
+ * Icons which were never retained are left to the garbage collector, since they may be
+ * shown somewhere that isn't tracked.
+ */
+public class IconCache extends LruCache<String, Drawable> {
+    private static final String TAG = "IconCache";
+    /** Fraction of the max heap which is used for icons by default */
+    private static final int DEFAULT_HEAP_FRACTION = 8;
+    /** Size assumed for drawables which have no intrinsic size (eg. color drawables) */
+    private static final int FALLBACK_BYTES = 128 * 128 * 4;
+
+    /** How long a released bitmap waits before it's pooled, in case it's about to be shown again */
+    private static final int POOL_DELAY_MS = 1000;
+
+    private final int defaultMaxBytes;
+
+    // Tracking of which bitmaps are shown, all guarded by displayLock
+    private final Object displayLock = new Object();
+    /** Number of views currently showing each bitmap */
+    private final Map<Bitmap, Integer> displayCounts = new HashMap<>();
+    /** Bitmaps which have been shown by a view at some point */
+    private final Set<Bitmap> retainedBitmaps = Collections.newSetFromMap(new WeakHashMap<>());
+    /** Bitmaps which have left the cache, but are still shown */
+    private final Set<Bitmap> removedBitmaps = new HashSet<>();
+    /** Bitmaps which are neither cached nor shown, by the time they were released */
+    private final Map<Bitmap, Long> releasedBitmaps = new HashMap<>();
+    private boolean poolPending = false;
+
+    /**
+     * Creates a new cache with the default budget (an eighth of the max heap)
+     */
+    public IconCache() {
+        this((int) Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / DEFAULT_HEAP_FRACTION));
+    }
+    /**
+     * Creates a new cache with a given budget
+     * @param maxBytes Maximum number of bytes of bitmap data to hold
+     */
+    public IconCache(int maxBytes) {
+        super(maxBytes);
+        defaultMaxBytes = maxBytes;
+    }
+
+    @Override
+    protected int sizeOf(@NonNull String key, @NonNull Drawable value) {
+        return bytesOf(value);
+    }
+
+    @Override
+    protected void entryRemoved(boolean evicted, @NonNull String key,
+                                @NonNull Drawable oldValue, @Nullable Drawable newValue) {
+        final Bitmap bitmap = bitmapOf(oldValue);
+        if (bitmap == null || bitmap == bitmapOf(newValue)) return;
+        synchronized (displayLock) {
+            if (!retainedBitmaps.contains(bitmap)) return;
+            if (displayCounts.containsKey(bitmap)) removedBitmaps.add(bitmap);
+            else releaseToPool(bitmap);
+        }
+    }
+
+    /**
+     * Marks an icon as shown by a view, so that its bitmap is never reused while it's shown.
+     * Every call must be matched by a call to {@link #release} once the view stops showing it.
+     * @param drawable Icon which is now shown
+     */
+    public void retain(@Nullable Drawable drawable) {
+        final Bitmap bitmap = bitmapOf(drawable);
+        if (bitmap == null) return;
+        synchronized (displayLock) {
+            Integer count = displayCounts.get(bitmap);
+            displayCounts.put(bitmap, count == null ? 1 : count + 1);
+            retainedBitmaps.add(bitmap);
+            // Rescue it if it was about to be pooled
+            if (releasedBitmaps.remove(bitmap) != null) removedBitmaps.add(bitmap);
+        }
+    }
+    /**
+     * Marks an icon as no longer shown by a view
+     * @param drawable Icon which was shown, as passed to {@link #retain}
+     */
+    public void release(@Nullable Drawable drawable) {
+        final Bitmap bitmap = bitmapOf(drawable);
+        if (bitmap == null) return;
+        synchronized (displayLock) {
+            Integer count = displayCounts.get(bitmap);
+            if (count == null) return;
+            if (count > 1) {
+                displayCounts.put(bitmap, count - 1);
+                return;
+            }
+            displayCounts.remove(bitmap);
+            if (removedBitmaps.remove(bitmap)) releaseToPool(bitmap);
+        }
+    }
+
+    /** Queues a bitmap to be pooled after a short delay. Must hold displayLock. */
+    private void releaseToPool(Bitmap bitmap) {
+        releasedBitmaps.put(bitmap, System.currentTimeMillis());
+        if (!poolPending) {
+            poolPending = true;
+            DelayLib.delayed(this::poolReleased, POOL_DELAY_MS);
+        }
+    }
+    private void poolReleased() {
+        synchronized (displayLock) {
+            poolPending = false;
+            final long cutoff = System.currentTimeMillis() - POOL_DELAY_MS;
+            Iterator<Map.Entry<Bitmap, Long>> iterator = releasedBitmaps.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<Bitmap, Long> entry = iterator.next();
+                if (entry.getValue() > cutoff) continue;
+                BitmapPool.put(entry.getKey());
+                iterator.remove();
+            }
+            if (!releasedBitmaps.isEmpty()) {
+                poolPending = true;
+                DelayLib.delayed(this::poolReleased, POOL_DELAY_MS);
+            }
+        }
+    }
+
+    @Nullable
+    private static Bitmap bitmapOf(@Nullable Drawable drawable) {
+        if (drawable instanceof BitmapDrawable bitmapDrawable) return bitmapDrawable.getBitmap();
+        return null;
+    }
+
+    /**
+     * Gets the number of bytes used by a drawable
+     * @param drawable Drawable to measure
+     * @return Bytes of bitmap data used by the drawable (estimated if it isn't a bitmap)
+     */
+    public static int bytesOf(Drawable drawable) {
+        if (drawable instanceof BitmapDrawable bitmapDrawable) {
+            Bitmap bitmap = bitmapDrawable.getBitmap();
+            if (bitmap != null && !bitmap.isRecycled()) return bitmap.getAllocationByteCount();
+        }
+        final int width = drawable.getIntrinsicWidth();
+        final int height = drawable.getIntrinsicHeight();
+        if (width <= 0 || height <= 0) return FALLBACK_BYTES;
+        return width * height * 4;
+    }
+
+    /** @return True if an icon with the given cache name is currently in memory */
+    public boolean containsKey(String key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Changes the budget of the cache, evicting icons if it has shrunk
+     * @param maxBytes New maximum number of bytes of bitmap data to hold
+     */
+    public void setBudget(int maxBytes) {
+        resize(Math.max(1, maxBytes));
+    }
+
+    /**
+     * Shrinks the cache in response to memory pressure.
+     * Should be called from {@link ComponentCallbacks2#onTrimMemory(int)}.
+     * @param level Level passed to onTrimMemory
+     */
+    public void trimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_COMPLETE
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            // We're about to be killed, or the foreground is struggling; drop everything
+            evictAll();
+            BitmapPool.clear();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            trimToSize(maxSize() / 4);
+            BitmapPool.clear();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE) {
+            trimToSize(maxSize() / 2);
+            BitmapPool.trimToSize(BitmapPool.getSizeBytes() / 2);
+        }
+        Log.v(TAG, "Trimmed for level " + level + ", now " + size() + "/" + maxSize() + " bytes");
+        BitmapPool.log();
+    }
+
+    /** @return The budget the cache was created with */
+    public int getDefaultBudget() {
+        return defaultMaxBytes;
+    }
+}
@@ -2,13 +2,18 @@ package com.threethan.launchercore.icon;
 
 import android.app.Activity;
 import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.util.Log;
 import android.widget.ImageView;
 
+import androidx.annotation.Nullable;
+import androidx.core.content.pm.PackageInfoCompat;
 import androidx.core.content.res.ResourcesCompat;
 
 import com.threethan.launchercore.Core;
@@ -18,11 +23,16 @@ import com.threethan.launchercore.lib.StringLib;
 import com.threethan.launchercore.util.App;
 
 import java.io.File;
-import java.io.FileOutputStream;
-import java.io.IOException;
+import java.util.List;
 import java.util.Map;
-import java.util.Objects;
+import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 
 /*
@@ -33,23 +43,43 @@ import java.util.function.Consumer;
  */
 
 public abstract class IconLoader {
-    private static final int ICON_MAX_HEIGHT = 128;
+    static final int ICON_MAX_HEIGHT = 128;
     private static final int ICON_QUALITY = 90;
+    /** Folder which held downloaded icons as individual files, before they were packed */
     public static final String ICON_CACHE_FOLDER = "/icon-cache";
-    public static final Map<String, Drawable> cachedIcons = new ConcurrentHashMap<>();
-    public static final Object ICON_CUSTOM_FOLDER = "/icon-custom";
+    /** Decoded icons currently held in memory, keyed by {@link #cacheName(ApplicationInfo)} */
+    public static final IconCache cachedIcons = new IconCache();
+    /** Folder which held custom icons as individual files, before they were packed */
+    public static final String ICON_CUSTOM_FOLDER = "/icon-custom";
+    /** Downloaded icons, keyed by {@link #iconKeyForApp(ApplicationInfo)} */
+    public static final IconStore cacheStore = new IconStore("icon-cache.pack", ICON_CACHE_FOLDER);
+    /** Icons chosen by the user, keyed by {@link #iconKeyForApp(ApplicationInfo)} */
+    public static final IconStore customStore = new IconStore("icon-custom.pack", ICON_CUSTOM_FOLDER);
+
+    /**
+     * Source dirs of the apps whose icons are in memory, by cache name.
+     * An app's source dir changes whenever it's updated, so this tells us if the icon may be stale
+     * without asking the package manager on the ui thread.
+     */
+    private static final Map<String, String> sourceDirByCacheName = new ConcurrentHashMap<>();
 
-    public static void saveIcon(ApplicationInfo app, File iconFile) {
-        try {
-            Drawable newIconDrawable = Drawable.createFromPath(iconFile.getAbsolutePath());
-            if (newIconDrawable != null) // Success
-                cachedIcons.put(StringLib.toValidFilename(app.packageName), newIconDrawable);
-        } catch (Exception ignored) {
-            Log.w("Icon", "Error when loading icon drawable from path "+iconFile.getAbsolutePath());
-        }
-    }
     public static void cacheIcon(ApplicationInfo app, Drawable iconDrawable) {
-        cachedIcons.put(StringLib.toValidFilename(app.packageName), iconDrawable);
+        if (iconDrawable == null) return;
+        final String cacheName = cacheName(app);
+        if (app.sourceDir != null) sourceDirByCacheName.put(cacheName, app.sourceDir);
+        cachedIcons.put(cacheName, iconDrawable);
+    }
+    /** Gets an app's icon from memory, dropping it if the app was updated since it was cached */
+    @Nullable
+    private static Drawable getCachedIcon(ApplicationInfo app, String cacheName) {
+        final Drawable cachedIcon = cachedIcons.get(cacheName);
+        if (cachedIcon == null || app.sourceDir == null) return cachedIcon;
+        final String cachedSourceDir = sourceDirByCacheName.get(cacheName);
+        if (cachedSourceDir == null || cachedSourceDir.equals(app.sourceDir)) return cachedIcon;
+        Log.v("Icon", "Dropping icon of updated app " + app.packageName);
+        sourceDirByCacheName.remove(cacheName);
+        cachedIcons.remove(cacheName);
+        return null;
     }
     @Deprecated
     public static void loadIcon(ApplicationInfo app, Activity activity, ImageView... imageViews) {
@@ -66,66 +96,331 @@ public abstract class IconLoader {
      * @param callback Consumer which handles the icon
      */
     public static void loadIcon(ApplicationInfo app, final Consumer<Drawable> callback) {
-        if (app instanceof UtilityApplicationInfo uApp)
+        loadIcon(app, PRIORITY_DEFAULT, callback);
+    }
+
+    /** Priority for icons which are about to be shown, but aren't bound to a view yet */
+    public static final int PRIORITY_PREFETCH = 0;
+    /** Priority for icons requested without any particular urgency */
+    public static final int PRIORITY_DEFAULT = 1;
+    /** Priority for icons of views which are currently bound and visible */
+    public static final int PRIORITY_VISIBLE = 2;
+
+    /**
+     * Loads the icon for an app with a given priority.
+     * The callback will be called immediately on this thread if the icon is in memory,
+     * otherwise it will be called on a loader thread once the icon is loaded.
+     * <p>
+     * If the same icon is already being loaded, the callback is attached to that load
+     * rather than starting another one.
+     * @param app App to get the icon for
+     * @param priority Priority of the request, higher priorities are loaded first
+     * @param callback Consumer which handles the icon
+     * @return The pending request, which may be cancelled if the icon is no longer needed,
+     *         or null if the callback was already called
+     */
+    @Nullable
+    public static IconRequest loadIcon(ApplicationInfo app, int priority,
+                                       final Consumer<Drawable> callback) {
+        if (app instanceof UtilityApplicationInfo uApp) {
             callback.accept(uApp.getDrawable());
-        else if (IconLoader.cachedIcons.containsKey(cacheName(app)))
-            callback.accept(IconLoader.cachedIcons.get(cacheName(app)));
-        else new LoadIconExecutor(app, callback).execute();
+            return null;
+        }
+        final String cacheName = cacheName(app);
+        final long startNanos = IconStats.Timer.start();
+        while (true) {
+            final Drawable cachedIcon = getCachedIcon(app, cacheName);
+            if (cachedIcon != null) {
+                IconStats.memoryHit.stop(startNanos);
+                callback.accept(cachedIcon);
+                return null;
+            }
+            LoadIconExecutor executor = inFlightLoads.computeIfAbsent(cacheName,
+                    k -> new LoadIconExecutor(app, priority));
+            IconRequest request = executor.attach(callback, priority);
+            if (request != null) {
+                IconStats.memoryMiss.stop(startNanos);
+                return request;
+            }
+            // That load just finished, so its icon should be cached now
+            inFlightLoads.remove(cacheName, executor);
+        }
     }
 
+    /** Loads which are queued or running, by {@link #cacheName(ApplicationInfo)} */
+    private static final Map<String, LoadIconExecutor> inFlightLoads = new ConcurrentHashMap<>();
+
     /**
-     * Loads an icon asynchronously
+     * Number of threads used to load icons. Loading is mostly disk and decode bound,
+     * so more threads than this only adds contention.
      */
-    protected static class LoadIconExecutor {
-        private final ApplicationInfo app;
+    private static final int LOADER_THREADS
+            = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    private static final AtomicLong loadSequence = new AtomicLong();
+    /** Shared pool used by all LoaderTasks, queued by priority */
+    private static final ThreadPoolExecutor loaderPool;
+    static {
+        loaderPool = new ThreadPoolExecutor(LOADER_THREADS, LOADER_THREADS,
+                30, TimeUnit.SECONDS, new PriorityBlockingQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, "IconLoader");
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                });
+        loaderPool.allowCoreThreadTimeOut(true);
+    }
+
+    /** Priority of store work, which runs before any icon load so loads see its result */
+    private static final int PRIORITY_STORE = Integer.MAX_VALUE;
+    /** Work on the icon stores, run in the order it was posted */
+    private static final Queue<Runnable> storeTasks = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Anything run on the loader pool.
+     * Tasks with a higher priority are run first, tasks of the same priority are run
+     * in the order they were created.
+     */
+    abstract static class LoaderTask implements Runnable, Comparable<LoaderTask> {
+        private final long sequence = loadSequence.getAndIncrement();
+        abstract int priority();
+
+        @Override
+        public int compareTo(LoaderTask other) {
+            final int priority = priority(), otherPriority = other.priority();
+            if (priority != otherPriority) return Integer.compare(otherPriority, priority);
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+
+    /** Runs every posted store task, one at a time, so they happen in the order posted */
+    private static class StoreTask extends LoaderTask {
+        @Override
+        int priority() {
+            return PRIORITY_STORE;
+        }
+        @Override
+        public void run() {
+            synchronized (storeTasks) {
+                Runnable task;
+                while ((task = storeTasks.poll()) != null) {
+                    try {
+                        task.run();
+                    } catch (Exception e) {
+                        Log.e("Icon", "Icon store task failed", e);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs work on the icon stores on a loader thread, ahead of any queued icon loads.
+     * Opening a store, or changing one, may touch a lot of the disk, so it shouldn't be
+     * done on the ui thread. Tasks are run in the order they're posted.
+     * @param task Work to run, should post any ui changes back to the ui thread
+     */
+    public static void runOnLoader(Runnable task) {
+        storeTasks.add(task);
+        loaderPool.execute(new StoreTask());
+    }
+
+    /**
+     * Opens both icon stores in the background, scanning them and importing any legacy
+     * icons, so the first icon loads and edits don't have to.
+     */
+    public static void openStores() {
+        runOnLoader(() -> {
+            customStore.load();
+            cacheStore.load();
+        });
+    }
+
+    /** @return The number of icon loads waiting for a free loader thread */
+    public static int getQueuedLoadCount() {
+        return loaderPool.getQueue().size();
+    }
+
+    /**
+     * A single caller's interest in an icon load.
+     * Cancelling it only stops this caller's callback; the load itself is cancelled
+     * once no callers are left waiting on it.
+     */
+    public static class IconRequest {
+        private final LoadIconExecutor executor;
         private final Consumer<Drawable> consumer;
+        private volatile boolean cancelled = false;
 
-        protected LoadIconExecutor(ApplicationInfo app, Consumer<Drawable> consumer) {
-            this.app = app;
+        private IconRequest(LoadIconExecutor executor, Consumer<Drawable> consumer) {
+            this.executor = executor;
             this.consumer = consumer;
         }
+        /** Stops the callback of this request from being called */
+        public void cancel() {
+            cancelled = true;
+            executor.detach(this);
+        }
+        public boolean isCancelled() {
+            return cancelled;
+        }
+    }
+
+    /**
+     * Loads an icon asynchronously on the shared loader pool.
+     * <p>
+     * Each executor loads one icon, and every {@link IconRequest} attached to it gets the result.
+     * Executors with a higher priority are run first, executors of the same priority are run
+     * in the order they were made. If all requests are cancelled before it starts,
+     * the executor is removed from the queue without running.
+     */
+    protected static class LoadIconExecutor extends LoaderTask {
+        private final ApplicationInfo app;
+        private final String cacheName;
+        private final List<IconRequest> requests = new CopyOnWriteArrayList<>();
+        private volatile int priority;
+        private final long createdNanos = IconStats.Timer.start();
+        private boolean submitted = false;
+        private boolean started = false;
+        private boolean finished = false;
+        private boolean cancelled = false;
+
+        protected LoadIconExecutor(ApplicationInfo app, int priority) {
+            this.app = app;
+            this.cacheName = cacheName(app);
+            this.priority = priority;
+        }
+
+        /**
+         * Adds a callback to this load, submitting it to the pool if it wasn't already
+         * @return The request, or null if this load has already finished or been cancelled
+         */
+        private synchronized IconRequest attach(Consumer<Drawable> consumer, int priority) {
+            if (finished || cancelled) return null;
+            IconRequest request = new IconRequest(this, consumer);
+            requests.add(request);
+            if (!submitted) {
+                submitted = true;
+                loaderPool.execute(this);
+            } else if (!started && priority > this.priority) {
+                // Re-queue, since the queue can't reorder an element in place
+                if (loaderPool.remove(this)) {
+                    this.priority = priority;
+                    loaderPool.execute(this);
+                }
+            }
+            return request;
+        }
+        private synchronized void detach(IconRequest request) {
+            requests.remove(request);
+            if (requests.isEmpty() && !started) {
+                cancelled = true;
+                loaderPool.remove(this);
+                inFlightLoads.remove(cacheName, this);
+            }
+        }
 
-        public void execute() {
-            Thread thread = new Thread(() ->
-                    loadIcon(icon -> {
-                        IconLoader.cacheIcon(app, icon);
-                        consumer.accept(icon);
-            }));
-            thread.setPriority(Thread.MIN_PRIORITY);
-            thread.start();
+        @Override
+        public void run() {
+            synchronized (this) {
+                if (cancelled) return;
+                started = true;
+            }
+            IconStats.queueWait.stop(createdNanos);
+            try {
+                loadIcon(icon -> {
+                    IconLoader.cacheIcon(app, icon);
+                    for (IconRequest request : requests)
+                        if (!request.cancelled) request.consumer.accept(icon);
+                });
+            } finally {
+                synchronized (this) {
+                    finished = true;
+                }
+                inFlightLoads.remove(cacheName, this);
+            }
         }
+
+        @Override
+        int priority() {
+            return priority;
+        }
+
         public void loadIcon(Consumer<Drawable> callback) {
             Drawable appIcon = null;
+            long startNanos = IconStats.Timer.start();
             // Everything in the try will still attempt to download an icon
             try {
-                // Try to load from external custom icon file
-                final File iconCustomFile = iconCustomFileForApp(app);
-                if (iconCustomFile.exists()) appIcon = Drawable.createFromPath(iconCustomFile.getAbsolutePath());
+                // Try to load from custom icons
+                appIcon = loadStoredIcon(customStore, app);
+                if (appIcon != null) {
+                    IconStats.customHit.stop(startNanos);
+                    callback.accept(appIcon);
+                    return;
+                }
+                // Try to load from the icon pack
+                startNanos = IconStats.Timer.start();
+                appIcon = IconPack.getDrawable(app);
                 if (appIcon != null) {
+                    IconStats.iconPackHit.stop(startNanos);
                     callback.accept(appIcon);
                     return;
                 }
-                // Try to load from cached icon file
-                final File iconCacheFile = iconCacheFileForApp(app);
-                if (iconCacheFile.exists()) appIcon = Drawable.createFromPath(iconCacheFile.getAbsolutePath());
+                // Try to load from downloaded icons
+                startNanos = IconStats.Timer.start();
+                appIcon = loadStoredIcon(cacheStore, app);
                 if (appIcon != null) {
+                    IconStats.cacheHit.stop(startNanos);
                     callback.accept(appIcon);
+                    // The stored icon is only checked for updates if the app was updated
+                    if (isStoredIconStale(app)) {
+                        IconUpdater.schedule.remove(app.packageName);
+                        IconUpdater.check(app, callback);
+                    }
                     return;
                 }
 
-                // Try to load from package manager
-                PackageManager packageManager = Core.context().getPackageManager();
-                Resources resources = packageManager.getResourcesForApplication(app);
+                // Try to load from the icons bundled with the app
+                startNanos = IconStats.Timer.start();
+                final boolean banner = App.isBanner(app);
+                appIcon = IconSeed.getDrawable(iconKeyForApp(app),
+                        banner ? targetSizePx * 2 : targetSizePx,
+                        banner ? targetSizePx * 9 / 8 : targetSizePx,
+                        Bitmap.Config.RGB_565);
+                if (appIcon != null) {
+                    IconStats.seedHit.stop(startNanos);
+                    callback.accept(appIcon);
+                    // Downloading can wait for the next refresh, rather than happening on first run
+                    IconUpdater.deferFirstCheck(app.packageName);
+                    return;
+                }
 
-                // Check Icon
-                int iconId = app.icon;
-                // Check AndroidTV banner
-                if (app.banner != 0 && App.isBanner(app)) iconId = app.banner;
+                // Try to load the package manager's icon, as rasterized by a previous load
+                startNanos = IconStats.Timer.start();
+                final String packageIconStamp = packageIconStampForApp(app);
+                appIcon = loadPackageIcon(app, packageIconStamp);
+                if (appIcon != null) {
+                    IconStats.packageCacheHit.stop(startNanos);
+                    callback.accept(appIcon);
+                } else {
+                    // Try to load from package manager
+                    startNanos = IconStats.Timer.start();
+                    PackageManager packageManager = Core.context().getPackageManager();
+                    Resources resources = packageManager.getResourcesForApplication(app);
 
-                if (iconId == 0) iconId = android.R.drawable.sym_def_app_icon;
-                appIcon = ResourcesCompat.getDrawable(resources, iconId, Core.context().getTheme());
-                callback.accept(appIcon);
-            } catch (PackageManager.NameNotFoundException ignored) {}
+                    // Check Icon
+                    int iconId = app.icon;
+                    // Check AndroidTV banner
+                    if (app.banner != 0 && App.isBanner(app)) iconId = app.banner;
+
+                    if (iconId == 0) iconId = android.R.drawable.sym_def_app_icon;
+                    appIcon = ResourcesCompat.getDrawable(resources, iconId, Core.context().getTheme());
+                    // Adaptive and vector icons would otherwise be re-rendered every time they're drawn
+                    final Drawable rasterized = savePackageIcon(app, appIcon, packageIconStamp);
+                    if (rasterized != null) appIcon = rasterized;
+                    IconStats.packageManager.stop(startNanos);
+                    callback.accept(appIcon);
+                }
+            } catch (PackageManager.NameNotFoundException ignored) {
+                IconStats.loadFailure.stop(startNanos);
+            }
 
             // Attempt to download the icon for this app from an online repo
             // Done AFTER saving the drawable version to prevent a race condition)
@@ -133,18 +428,134 @@ public abstract class IconLoader {
         }
     }
 
-    /** @return The file location which should be used for the applications cache file */
-    static File iconCacheFileForApp(ApplicationInfo app) {
-        String cacheName = cacheName(app);
+    /** Width of square icons as displayed, in px, or 0 if not yet known */
+    private static volatile int targetSizePx = 0;
+    /**
+     * Sets the size icons are displayed at, so they aren't decoded any larger than needed.
+     * Banners are displayed twice as wide, at a 16:9 ratio.
+     * @param sizePx Width of square icons, in px
+     */
+    public static void setTargetSize(int sizePx) {
+        final int previousSizePx = targetSizePx;
+        if (sizePx == previousSizePx) return;
+        targetSizePx = sizePx;
+        // Icons decoded for a smaller size would look blurry
+        if (previousSizePx != 0 && sizePx > previousSizePx) cachedIcons.evictAll();
+    }
+    /**
+     * Decodes an app's icon from a store, at the size it will be displayed.
+     * Opaque icons are decoded as RGB_565, since they don't need an alpha channel.
+     * @return The icon, or null if the store has none for this app
+     */
+    @Nullable
+    static Drawable loadStoredIcon(IconStore store, ApplicationInfo app) {
+        final boolean banner = App.isBanner(app);
+        return store.getDrawable(iconKeyForApp(app),
+                banner ? targetSizePx * 2 : targetSizePx,
+                banner ? targetSizePx * 9 / 8 : targetSizePx,
+                Bitmap.Config.RGB_565);
+    }
+
+    /** Suffix of the keys of rasterized package manager icons in {@link #cacheStore} */
+    public static final String PACKAGE_ICON_SUFFIX = "-pm";
+
+    /**
+     * Gets a stamp for an app's rasterized package manager icon, which changes if the app is
+     * updated or icons are displayed at a different size. The app's source dir changes on update,
+     * so this needs no call to the package manager.
+     * @return The stamp, or null if the app has no package to rasterize an icon from
+     */
+    @Nullable
+    private static String packageIconStampForApp(ApplicationInfo app) {
+        if (app.sourceDir == null) return null;
+        return app.sourceDir + ":" + new File(app.sourceDir).lastModified() + ":" + targetSizePx;
+    }
+    /**
+     * Loads an app's package manager icon, as previously rasterized and stored in
+     * {@link #cacheStore}, so its resources don't need to be loaded again
+     * @return The icon, or null if it wasn't stored or is out of date
+     */
+    @Nullable
+    private static Drawable loadPackageIcon(ApplicationInfo app, @Nullable String stamp) {
+        if (stamp == null) return null;
+        final String key = iconKeyForApp(app) + PACKAGE_ICON_SUFFIX;
+        if (!stamp.equals(IconUpdater.schedule.getStamp(key))) return null;
         final boolean banner = App.isBanner(app);
-        return new File(Core.context().getApplicationInfo().dataDir + ICON_CACHE_FOLDER,
-                cacheName + (banner ? "-banner" : "") + ".webp");
+        return cacheStore.getDrawable(key,
+                banner ? targetSizePx * 2 : targetSizePx,
+                banner ? targetSizePx * 9 / 8 : targetSizePx,
+                Bitmap.Config.RGB_565);
     }
-    public static File iconCustomFileForApp(ApplicationInfo app) {
-        String cacheName = cacheName(app);
+    /**
+     * Rasterizes an app's package manager icon at the size it's displayed,
+     * and stores it in {@link #cacheStore} for later loads
+     * @return The rasterized icon, or null if it couldn't be rasterized
+     */
+    @Nullable
+    private static Drawable savePackageIcon(ApplicationInfo app, @Nullable Drawable icon,
+                                            @Nullable String stamp) {
+        if (icon == null || stamp == null) return null;
         final boolean banner = App.isBanner(app);
-        return new File(Core.context().getApplicationInfo().dataDir + ICON_CUSTOM_FOLDER,
-                cacheName + (banner ? "-banner" : "") + ".webp");    }
+        final int width = (targetSizePx > 0 ? targetSizePx : ICON_MAX_HEIGHT) * (banner ? 2 : 1);
+        final int intrinsicWidth = icon.getIntrinsicWidth();
+        final int intrinsicHeight = icon.getIntrinsicHeight();
+        final int height = intrinsicWidth > 0 && intrinsicHeight > 0
+                ? Math.max(1, Math.round((float) width * intrinsicHeight / intrinsicWidth))
+                : (banner ? width * 9 / 16 : width);
+        try {
+            Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            Canvas canvas = new Canvas(bitmap);
+            icon.setBounds(0, 0, width, height);
+            icon.draw(canvas);
+            bitmap = scaleBitmap(bitmap);
+            final String key = iconKeyForApp(app) + PACKAGE_ICON_SUFFIX;
+            if (cacheStore.putBitmap(key, bitmap, ICON_QUALITY))
+                IconUpdater.schedule.putStamp(key, stamp);
+            return new BitmapDrawable(Core.context().getResources(), bitmap);
+        } catch (RuntimeException e) {
+            Log.w("Icon", "Failed to rasterize icon of " + app.packageName, e);
+            return null;
+        }
+    }
+
+    /**
+     * Gets a stamp which changes whenever an installed app is updated, and so may have a new icon.
+     * Websites and shortcuts have none; their downloaded icons are validated by content instead.
+     * <p>
+     * This asks the package manager, so it shouldn't be called on the ui thread.
+     * @return The app's version code and last update time, or null if it isn't a package
+     */
+    @Nullable
+    static String iconStampForApp(ApplicationInfo app) {
+        if (App.isWebsite(app.packageName)) return null;
+        try {
+            PackageInfo packageInfo = Core.context().getPackageManager()
+                    .getPackageInfo(app.packageName, 0);
+            return PackageInfoCompat.getLongVersionCode(packageInfo)
+                    + "-" + packageInfo.lastUpdateTime;
+        } catch (PackageManager.NameNotFoundException ignored) {
+            return null;
+        }
+    }
+    /**
+     * Checks the stamp of an app's downloaded icon against the installed package,
+     * and re-stamps it, so each update is only reported once.
+     * Icons stored before stamps existed are stamped without being reported.
+     * @return True if the app was updated since its icon was stored
+     */
+    private static boolean isStoredIconStale(ApplicationInfo app) {
+        final String stamp = iconStampForApp(app);
+        if (stamp == null) return false;
+        final String iconKey = iconKeyForApp(app);
+        final String storedStamp = IconUpdater.schedule.getStamp(iconKey);
+        IconUpdater.schedule.putStamp(iconKey, stamp);
+        return storedStamp != null && !storedStamp.equals(stamp);
+    }
+
+    /** @return The key of the app's icon in {@link #cacheStore} and {@link #customStore} */
+    public static String iconKeyForApp(ApplicationInfo app) {
+        return cacheName(app) + (App.isBanner(app) ? "-banner" : "");
+    }
     public static String cacheName(ApplicationInfo app) {
         return StringLib.toValidFilename(app.packageName);
     }
@@ -159,17 +570,9 @@ public abstract class IconLoader {
         }
         return bitmap;
     }
-    public static void compressAndSaveBitmap(File file, Bitmap bitmap) {
-        try {
-            //noinspection ResultOfMethodCallIgnored
-            Objects.requireNonNull(file.getParentFile()).mkdirs();
-            FileOutputStream fileOutputStream = new FileOutputStream(file.getAbsolutePath(), false);
-            bitmap = scaleBitmap(bitmap);
-            bitmap.compress(Bitmap.CompressFormat.WEBP, ICON_QUALITY, fileOutputStream);
-            fileOutputStream.close();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+    /** @return True if the bitmap was scaled, compressed and stored */
+    public static boolean compressAndSaveBitmap(IconStore store, String key, Bitmap bitmap) {
+        return store.putBitmap(key, scaleBitmap(bitmap), ICON_QUALITY);
     }
     public static void saveIconDrawableExternal(Drawable icon, ApplicationInfo app) {
         try {
@@ -178,12 +581,8 @@ public abstract class IconLoader {
                 Log.i("Icon", "Failed to load drawable bitmap for "+app.packageName);
             else {
                 String cacheName = cacheName(app);
-                File f1 =  new File(Core.context().getApplicationInfo().dataDir + ICON_CUSTOM_FOLDER,
-                        cacheName + ".webp");
-                File f2 =  new File(Core.context().getApplicationInfo().dataDir + ICON_CUSTOM_FOLDER,
-                        cacheName + "-banner" + ".webp");
-                compressAndSaveBitmap(f1,bitmap);
-                compressAndSaveBitmap(f2,bitmap);
+                compressAndSaveBitmap(customStore, cacheName, bitmap);
+                compressAndSaveBitmap(customStore, cacheName + "-banner", bitmap);
             }
         } catch (Exception e) {
             Log.i("ICON", "Exception while converting file " + app.packageName);
@@ -0,0 +1,64 @@
+package com.threethan.launchercore.icon;
+
+import android.util.Log;
+
+import com.threethan.launchercore.Core;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Url templates of the repositories icons are downloaded from, in the order they're tried.
+ * <p>
+ * They're read from an asset, which the {@code packIconSeed} gradle task reads as well,
+ * so the bundled icons always come from the same repositories as downloaded ones.
+ */
+abstract class IconMirrors {
+    private static final String TAG = "IconMirrors";
+    private static final String ASSET = "icon-mirrors.txt";
+    private static final String SECTION_SQUARE = "[square]";
+    private static final String SECTION_BANNER = "[banner]";
+
+    private static String[] square;
+    private static String[] banner;
+
+    /** @return Templates for square icons, each containing a single %s for the file name */
+    static synchronized String[] square() {
+        load();
+        return square;
+    }
+    /** @return Templates for banners, each containing a single %s for the file name */
+    static synchronized String[] banner() {
+        load();
+        return banner;
+    }
+
+    private static void load() {
+        if (square != null) return;
+        List<String> squareTemplates = new ArrayList<>();
+        List<String> bannerTemplates = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                Core.context().getAssets().open(ASSET), StandardCharsets.UTF_8))) {
+            List<String> section = null;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) continue;
+                if (line.equals(SECTION_SQUARE)) section = squareTemplates;
+                else if (line.equals(SECTION_BANNER)) section = bannerTemplates;
+                else if (section != null) section.add(line);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to read " + ASSET + ", icons won't be downloaded", e);
+        }
+        square = squareTemplates.toArray(new String[0]);
+        banner = bannerTemplates.toArray(new String[0]);
+        // Both are registered up front, so each repository's listing covers all of them
+        IconRepo.addTemplates(square);
+        IconRepo.addTemplates(banner);
+    }
+}
@@ -0,0 +1,292 @@
+package com.threethan.launchercore.icon;
+
+import android.annotation.SuppressLint;
+import android.content.ComponentName;
+import android.content.Intent;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.ResolveInfo;
+import android.content.res.Resources;
+import android.graphics.drawable.Drawable;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+import androidx.core.content.pm.PackageInfoCompat;
+import androidx.core.content.res.ResourcesCompat;
+
+import com.threethan.launchercore.Core;
+import com.threethan.launchercore.util.App;
+import com.threethan.launchercore.util.Launch;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlPullParserFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Applies a standard third-party icon pack, as used by other Android launchers.
+ * <p>
+ * Icon packs map app components to drawables in an appfilter.xml file. Parsing that and
+ * resolving each drawable by name is far too slow to do per icon, so the pack is parsed once
+ * into a compact index of resource ids, which is saved to a file next to the icon stores.
+ * The index is rebuilt if the pack is changed or updated, since its resource ids may change.
+ * <p>
+ * Icon packs only have square icons, so apps shown as banners keep their usual icons.
+ */
+public abstract class IconPack {
+    private static final String TAG = "IconPack";
+    private static final String INDEX_FILE = "icon-pack.idx";
+    private static final int MAGIC = 0x4C495049; // "LIPI"
+    private static final int VERSION = 2;
+    /** Intents with which icon packs identify themselves to launchers */
+    private static final String[] PACK_ACTIONS = {
+            "org.adw.launcher.THEMES",
+            "com.novalauncher.THEME",
+            "com.gau.go.launcherex.theme",
+    };
+
+    @Nullable private static volatile String packPackageName = null;
+    /** Resource ids of the pack's icons, by package name and by "package/class" component */
+    @Nullable private static Map<String, Integer> resIdByKey = null;
+    @Nullable private static Resources packResources = null;
+
+    /**
+     * Sets the icon pack to use. This doesn't reload any icons already in memory.
+     * @param packageName Package of the icon pack, or null or empty for none
+     */
+    public static synchronized void setPackage(@Nullable String packageName) {
+        if (packageName != null && packageName.isEmpty()) packageName = null;
+        if (Objects.equals(packageName, packPackageName)) return;
+        packPackageName = packageName;
+        resIdByKey = null;
+        packResources = null;
+    }
+    /** @return The package of the current icon pack, or null if there is none */
+    @Nullable
+    public static String getPackage() {
+        return packPackageName;
+    }
+    /**
+     * Drops the loaded index, so it's checked against the installed pack on next use.
+     * Should be called after packages change, in case the pack was updated or removed.
+     */
+    public static synchronized void invalidate() {
+        resIdByKey = null;
+        packResources = null;
+    }
+
+    /**
+     * Lists installed icon packs
+     * @return Labels of the installed icon packs, by package name
+     */
+    public static Map<String, String> listInstalled() {
+        PackageManager packageManager = Core.context().getPackageManager();
+        Map<String, String> labelByPackage = new LinkedHashMap<>();
+        for (String action : PACK_ACTIONS) {
+            @SuppressLint("QueryPermissionsNeeded")
+            List<ResolveInfo> resolveInfos
+                    = packageManager.queryIntentActivities(new Intent(action), 0);
+            for (ResolveInfo resolveInfo : resolveInfos) {
+                final String packageName = resolveInfo.activityInfo.packageName;
+                if (!labelByPackage.containsKey(packageName)) labelByPackage.put(packageName,
+                        resolveInfo.loadLabel(packageManager).toString());
+            }
+        }
+        return labelByPackage;
+    }
+
+    /**
+     * Gets an app's icon from the current icon pack, preferring the icon for the activity
+     * the app is launched with, then the first icon listed for its package.
+     * This may parse the pack on first use, so shouldn't be called on the ui thread.
+     * @return The icon, or null if there's no pack or it has no icon for this app
+     */
+    @Nullable
+    public static Drawable getDrawable(ApplicationInfo app) {
+        if (packPackageName == null || App.isBanner(app)) return null;
+        final String component = launchComponentOf(app);
+        Integer resId;
+        final Resources resources;
+        synchronized (IconPack.class) {
+            if (!load()) return null;
+            resId = component == null ? null : resIdByKey.get(component);
+            if (resId == null) resId = resIdByKey.get(app.packageName);
+            resources = packResources;
+        }
+        if (resId == null || resources == null) return null;
+        try {
+            return ResourcesCompat.getDrawable(resources, resId, null);
+        } catch (Resources.NotFoundException e) {
+            Log.w(TAG, "Icon pack is missing an indexed icon, it will be re-indexed", e);
+            deleteIndex();
+            invalidate();
+            return null;
+        }
+    }
+
+    /** @return The app's launch activity as "package/class", or null if it has none */
+    @Nullable
+    private static String launchComponentOf(ApplicationInfo app) {
+        final Intent intent = Launch.getLaunchIntent(app);
+        final ComponentName componentName = intent == null ? null : intent.getComponent();
+        if (componentName == null || !componentName.getPackageName().equals(app.packageName))
+            return null;
+        return componentName.getPackageName() + "/" + componentName.getClassName();
+    }
+
+    /**
+     * Loads the index of the current pack, from its file if that's up to date,
+     * otherwise by parsing the pack
+     * @return True if an index is loaded
+     */
+    private static boolean load() {
+        if (resIdByKey != null) return true;
+        final String packageName = packPackageName;
+        if (packageName == null) return false;
+        try {
+            PackageManager packageManager = Core.context().getPackageManager();
+            PackageInfo packageInfo = packageManager.getPackageInfo(packageName, 0);
+            final String stamp = packageName + ":" + PackageInfoCompat.getLongVersionCode(packageInfo)
+                    + ":" + packageInfo.lastUpdateTime;
+            packResources = packageManager.getResourcesForApplication(packageName);
+            Map<String, Integer> index = readIndex(stamp);
+            if (index == null) {
+                final long startMs = System.currentTimeMillis();
+                index = parse(packageName, packResources);
+                writeIndex(stamp, index);
+                Log.i(TAG, "Indexed " + index.size() + " icons of " + packageName + " in "
+                        + (System.currentTimeMillis() - startMs) + "ms");
+            }
+            resIdByKey = index;
+        } catch (PackageManager.NameNotFoundException e) {
+            Log.w(TAG, "Icon pack " + packageName + " is not installed");
+            resIdByKey = new HashMap<>();
+        }
+        return true;
+    }
+
+    /** Parses the pack's appfilter, resolving each drawable name to a resource id */
+    private static Map<String, Integer> parse(String packageName, Resources resources) {
+        Map<String, Integer> index = new HashMap<>();
+        Map<String, Integer> resIdByName = new HashMap<>();
+        InputStream assetStream = null;
+        try {
+            XmlPullParser parser;
+            @SuppressLint("DiscouragedApi")
+            final int xmlId = resources.getIdentifier("appfilter", "xml", packageName);
+            if (xmlId != 0) parser = resources.getXml(xmlId);
+            else {
+                assetStream = resources.getAssets().open("appfilter.xml");
+                parser = XmlPullParserFactory.newInstance().newPullParser();
+                parser.setInput(assetStream, null);
+            }
+            for (int event = parser.getEventType(); event != XmlPullParser.END_DOCUMENT;
+                 event = parser.next()) {
+                if (event != XmlPullParser.START_TAG || !"item".equals(parser.getName())) continue;
+                final String component = componentOf(parser.getAttributeValue(null, "component"));
+                final String drawable = parser.getAttributeValue(null, "drawable");
+                if (component == null || drawable == null) continue;
+                Integer resId = resIdByName.get(drawable);
+                if (resId == null) {
+                    //noinspection DiscouragedApi
+                    resId = resources.getIdentifier(drawable, "drawable", packageName);
+                    resIdByName.put(drawable, resId);
+                }
+                if (resId == 0) continue;
+                index.putIfAbsent(component, resId);
+                // Fallback for apps whose launch activity isn't listed, such as after an update
+                index.putIfAbsent(component.substring(0, component.indexOf('/')), resId);
+            }
+        } catch (IOException | XmlPullParserException e) {
+            Log.w(TAG, "Failed to parse icon pack " + packageName, e);
+        } finally {
+            if (assetStream != null) try {
+                assetStream.close();
+            } catch (IOException ignored) {}
+        }
+        return index;
+    }
+    /**
+     * @param value Component as written in an appfilter, such as "ComponentInfo{package/class}"
+     * @return The component as "package/class" with a full class name,
+     * or null if it's malformed
+     */
+    @Nullable
+    private static String componentOf(@Nullable String value) {
+        if (value == null) return null;
+        final int start = value.indexOf('{');
+        final int end = value.lastIndexOf('}');
+        final String component = start >= 0 && end > start ? value.substring(start + 1, end) : value;
+        final int slash = component.indexOf('/');
+        if (slash <= 0 || slash >= component.length() - 1) return null;
+        // Short class names are relative to the package, as in a manifest
+        if (component.charAt(slash + 1) == '.')
+            return component.substring(0, slash + 1) + component.substring(0, slash)
+                    + component.substring(slash + 1);
+        return component;
+    }
+
+    private static File indexFile() {
+        return new File(Core.context().getApplicationInfo().dataDir, INDEX_FILE);
+    }
+    /**
+     * Reads the saved index, if it was made for the same version of the same pack
+     * @return The index, or null if it needs to be rebuilt
+     */
+    @Nullable
+    private static Map<String, Integer> readIndex(String stamp) {
+        final File file = indexFile();
+        if (!file.exists()) return null;
+        try (DataInputStream input = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            if (input.readInt() != MAGIC || input.readInt() != VERSION
+                    || !stamp.equals(input.readUTF())) return null;
+            final int count = input.readInt();
+            Map<String, Integer> index = new HashMap<>(count * 4 / 3 + 1);
+            for (int i = 0; i < count; i++) index.put(input.readUTF(), input.readInt());
+            return index;
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to read icon pack index, it will be rebuilt", e);
+            return null;
+        }
+    }
+    /** Saves the index, atomically replacing any previous one */
+    private static void writeIndex(String stamp, Map<String, Integer> index) {
+        final File file = indexFile();
+        final File temp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream output = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(temp)))) {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeUTF(stamp);
+            output.writeInt(index.size());
+            for (Map.Entry<String, Integer> entry : index.entrySet()) {
+                output.writeUTF(entry.getKey());
+                output.writeInt(entry.getValue());
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to save icon pack index", e);
+            return;
+        }
+        if (!temp.renameTo(file)) Log.w(TAG, "Failed to replace icon pack index");
+    }
+    private static void deleteIndex() {
+        //noinspection ResultOfMethodCallIgnored
+        indexFile().delete();
+    }
+}
@@ -0,0 +1,279 @@
+package com.threethan.launchercore.icon;
+
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import com.threethan.launchercore.Core;
+import com.threethan.launchercore.lib.HttpLib;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps a compact, locally cached listing of the files each icon repository actually has,
+ * so that {@link IconUpdater} can resolve an app to the right url (or to none at all)
+ * without probing every mirror over the network.
+ * <p>
+ * Listings are fetched once per repository using the GitHub trees api, and refreshed daily.
+ * Only the directories used by the registered templates are kept, and only the names of their
+ * files, without extensions, since that's all a lookup needs.
+ * If a repository's listing is unavailable, its urls are simply probed as before.
+ */
+public abstract class IconRepo {
+    private static final String TAG = "IconRepo";
+    private static final String INDEX_FOLDER = "/icon-index";
+    private static final String TREE_API_TEMPLATE
+            = "https://api.github.com/repos/%s/%s/git/trees/%s?recursive=1";
+    /** Matches raw.githubusercontent.com templates as used by {@link IconUpdater} */
+    private static final Pattern RAW_TEMPLATE = Pattern.compile(
+            "^https://raw\\.githubusercontent\\.com/([^/]+)/([^/]+)/([^/]+)/(.+)/%s(\\.\\w+)$");
+    /** Starts a directory in a stored listing, and is followed by the names of its files */
+    private static final String DIRECTORY_PREFIX = "/";
+
+    // How long a fetched listing is trusted before it's refreshed
+    private static final long INDEX_MAX_AGE_MS = 24 * 60 * 60 * 1000;
+    // How long to wait before retrying a listing which failed to fetch
+    private static final long INDEX_RETRY_MS = 10 * 60 * 1000;
+
+    /** Listing of the template directories of a single repository */
+    static class Index {
+        /** Names of the files in each directory, without extensions */
+        final Map<String, Set<String>> namesByDirectory;
+        final long fetchedMs;
+        /** False if the listing may be missing files, in which case misses can't be trusted */
+        final boolean complete;
+        Index(Map<String, Set<String>> namesByDirectory, long fetchedMs, boolean complete) {
+            this.namesByDirectory = namesByDirectory;
+            this.fetchedMs = fetchedMs;
+            this.complete = complete;
+        }
+        /** @return True if the directory was listed */
+        boolean covers(String directory) {
+            return namesByDirectory.containsKey(directory);
+        }
+        /** @return False only if the repository is known not to have the file */
+        boolean mayHave(String directory, String name) {
+            final Set<String> names = namesByDirectory.get(directory);
+            return !complete || names == null || names.contains(name);
+        }
+    }
+
+    private static final Map<String, Index> indexByRepo = new ConcurrentHashMap<>();
+    private static final Map<String, Long> lastAttemptByRepo = new ConcurrentHashMap<>();
+    private static final Map<String, Object> locks = new ConcurrentHashMap<>();
+    /** Directories used by templates of each repository, which are all that's listed */
+    private static final Map<String, Set<String>> directoriesByRepo = new ConcurrentHashMap<>();
+
+    /**
+     * Registers url templates, so that the directories they use are listed
+     * when their repository's listing is next fetched.
+     * Every template should be registered before it's first used, otherwise the listing may
+     * need to be fetched again to cover it.
+     * @param templates Url templates, each containing a single %s for the file name
+     */
+    public static void addTemplates(String... templates) {
+        for (String template : templates) {
+            Matcher matcher = RAW_TEMPLATE.matcher(template);
+            if (!matcher.matches()) continue;
+            directoriesByRepo.computeIfAbsent(
+                    repoKey(matcher.group(1), matcher.group(2), matcher.group(3)),
+                    k -> ConcurrentHashMap.newKeySet()).add(matcher.group(4));
+        }
+    }
+
+    /**
+     * Gets the urls which may contain an icon, in the order of the given templates.
+     * Templates whose repository is known not to have the file are left out,
+     * so the result is empty if no repository has an icon for it.
+     * <p>
+     * This may block while a listing is fetched, so it must not be called on the ui thread.
+     * @param templates Url templates, each containing a single %s for the file name
+     * @param fileName Name of the file, without extension
+     * @return Urls which should be tried
+     */
+    public static List<String> candidateUrls(String[] templates, String fileName) {
+        addTemplates(templates);
+        List<String> urls = new ArrayList<>();
+        for (String template : templates) {
+            final String url = String.format(template, fileName);
+            Matcher matcher = RAW_TEMPLATE.matcher(template);
+            if (!matcher.matches()) {
+                urls.add(url);
+                continue;
+            }
+            Index index = getIndex(matcher.group(1), matcher.group(2), matcher.group(3));
+            if (index == null || index.mayHave(matcher.group(4), fileName)) urls.add(url);
+        }
+        return urls;
+    }
+
+    private static String repoKey(String owner, String repo, String branch) {
+        return owner + "." + repo + "." + branch;
+    }
+
+    /**
+     * Gets the listing for a repository, loading or fetching it if needed
+     * @return The listing, or null if none is available
+     */
+    @Nullable
+    private static Index getIndex(String owner, String repo, String branch) {
+        final String key = repoKey(owner, repo, branch);
+        final Set<String> directories = directoriesByRepo.get(key);
+        if (directories == null) return null;
+        Index index = indexByRepo.get(key);
+        if (index != null && isFresh(index, directories)) return index;
+
+        Object lock = locks.computeIfAbsent(key, k -> new Object());
+        synchronized (lock) {
+            index = indexByRepo.get(key);
+            if (index == null) {
+                index = readIndex(new File(indexFolder(), key + ".txt"));
+                if (index != null) indexByRepo.put(key, index);
+            }
+            if (index != null && isFresh(index, directories)) return index;
+
+            final Long lastAttempt = lastAttemptByRepo.get(key);
+            if (lastAttempt != null && System.currentTimeMillis() - lastAttempt < INDEX_RETRY_MS)
+                return index; // Use the stale listing, if any, until we can retry
+            lastAttemptByRepo.put(key, System.currentTimeMillis());
+
+            Index fetched = fetchIndex(String.format(TREE_API_TEMPLATE, owner, repo, branch),
+                    new HashSet<>(directories));
+            if (fetched != null) {
+                indexByRepo.put(key, fetched);
+                writeIndex(indexFolder(), key, fetched);
+                return fetched;
+            }
+            return index;
+        }
+    }
+    /** @return True if the listing is recent, and covers every directory it needs to */
+    private static boolean isFresh(Index index, Set<String> directories) {
+        if (System.currentTimeMillis() - index.fetchedMs > INDEX_MAX_AGE_MS) return false;
+        for (String directory : directories) if (!index.covers(directory)) return false;
+        return true;
+    }
+
+    /** Forgets all listings, so that they'll be fetched again when next needed */
+    public static void clear() {
+        indexByRepo.clear();
+        lastAttemptByRepo.clear();
+        File[] files = indexFolder().listFiles();
+        if (files != null) for (File file : files) //noinspection ResultOfMethodCallIgnored
+            file.delete();
+    }
+
+    /**
+     * Fetches a repository's listing from the trees api
+     * @param url Url of the repository's recursive tree
+     * @param directories Directories to keep, every other file is ignored
+     * @return The listing, or null if it couldn't be fetched
+     */
+    @Nullable
+    static Index fetchIndex(String url, Set<String> directories) {
+        try {
+            final HttpLib.Response response = HttpLib.get(url,
+                    Collections.singletonMap("Accept", "application/vnd.github+json"));
+            if (response.code != HttpURLConnection.HTTP_OK) {
+                Log.w(TAG, "Failed to fetch listing " + url + ", response code " + response.code);
+                return null;
+            }
+            JSONObject json = new JSONObject(new String(response.body, StandardCharsets.UTF_8));
+            JSONArray tree = json.getJSONArray("tree");
+            Map<String, Set<String>> namesByDirectory = new HashMap<>();
+            for (String directory : directories) namesByDirectory.put(directory, new HashSet<>());
+            int count = 0;
+            for (int i = 0; i < tree.length(); i++) {
+                JSONObject entry = tree.getJSONObject(i);
+                if (!Objects.equals(entry.optString("type"), "blob")) continue;
+                final String path = entry.getString("path");
+                final int slash = path.lastIndexOf('/');
+                if (slash < 0) continue;
+                final Set<String> names = namesByDirectory.get(path.substring(0, slash));
+                if (names == null) continue;
+                final String name = path.substring(slash + 1);
+                final int dot = name.lastIndexOf('.');
+                if (names.add(dot > 0 ? name.substring(0, dot) : name)) count++;
+            }
+            final boolean complete = !json.optBoolean("truncated", false);
+            Log.v(TAG, "Fetched listing of " + count + " files from " + url);
+            return new Index(namesByDirectory, System.currentTimeMillis(), complete);
+        } catch (IOException | JSONException e) {
+            Log.w(TAG, "Failed to fetch listing " + url, e);
+            return null;
+        }
+    }
+
+    // Listings are stored as text: a header line of "fetchedMs complete", then for each
+    // directory a line of "/directory" followed by one file name per line
+    private static File indexFolder() {
+        return new File(Core.context().getApplicationInfo().dataDir + INDEX_FOLDER);
+    }
+    @Nullable
+    static Index readIndex(File file) {
+        if (!file.exists()) return null;
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String[] header = Objects.requireNonNull(reader.readLine()).split(" ");
+            final long fetchedMs = Long.parseLong(header[0]);
+            final boolean complete = header.length > 1 && Boolean.parseBoolean(header[1]);
+            Map<String, Set<String>> namesByDirectory = new HashMap<>();
+            Set<String> names = null;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) continue;
+                if (line.startsWith(DIRECTORY_PREFIX)) {
+                    names = new HashSet<>();
+                    namesByDirectory.put(line.substring(DIRECTORY_PREFIX.length()), names);
+                } else if (names != null) names.add(line);
+            }
+            return new Index(namesByDirectory, fetchedMs, complete);
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "Failed to read listing " + file.getName(), e);
+            return null;
+        }
+    }
+    static void writeIndex(File folder, String key, Index index) {
+        //noinspection ResultOfMethodCallIgnored
+        folder.mkdirs();
+        File file = new File(folder, key + ".txt");
+        File temp = new File(folder, key + ".tmp");
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(temp))) {
+            writer.write(index.fetchedMs + " " + index.complete);
+            writer.newLine();
+            for (Map.Entry<String, Set<String>> entry : index.namesByDirectory.entrySet()) {
+                writer.write(DIRECTORY_PREFIX + entry.getKey());
+                writer.newLine();
+                for (String name : entry.getValue()) {
+                    writer.write(name);
+                    writer.newLine();
+                }
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write listing " + key, e);
+            return;
+        }
+        if (!temp.renameTo(file)) Log.w(TAG, "Failed to replace listing " + key);
+    }
+}
@@ -0,0 +1,225 @@
+package com.threethan.launchercore.icon;
+
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.threethan.launchercore.Core;
+import com.threethan.launchercore.lib.DelayLib;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
+
+/**
+ * Persistently stores when icons may next be checked for download,
+ * the HTTP validators of each icon which has been downloaded,
+ * the package version each stored icon was last checked against,
+ * and where the icon of each website was found.
+ * <p>
+ * This is saved to a small json file next to the icon cache folder, so that restarting the app
+ * does not cause every icon to be re-probed from every mirror.
+ * Writes are batched, and happen a few seconds after the last change.
+ */
+public class IconSchedule {
+    private static final String TAG = "IconSchedule";
+    private static final String SCHEDULE_FILE = "icon-schedule.json";
+    private static final int SAVE_DELAY_MS = 5000;
+
+    /**
+     * Validators for a downloaded icon, used to make conditional requests
+     */
+    public static class Validators {
+        @Nullable public String etag;
+        @Nullable public String lastModified;
+        /** Hash of the downloaded (not re-encoded) content */
+        @Nullable public String contentHash;
+        /** Key of the stored icon the url was downloaded into, null if saved before it was */
+        @Nullable public String iconKey;
+    }
+
+    /** Contents of the schedule file */
+    private static class Data {
+        Map<String, Long> nextCheckByPackageMs = new ConcurrentHashMap<>();
+        Map<String, Validators> validatorsByUrl = new ConcurrentHashMap<>();
+        Map<String, String> stampByIconKey = new ConcurrentHashMap<>();
+        Map<String, String> iconUrlByWebsite = new ConcurrentHashMap<>();
+    }
+
+    private Data data;
+    private final AtomicBoolean savePending = new AtomicBoolean(false);
+    private final Object saveLock = new Object();
+
+    private synchronized Data data() {
+        if (data == null) data = read();
+        return data;
+    }
+    private static File file() {
+        return new File(Core.context().getApplicationInfo().dataDir, SCHEDULE_FILE);
+    }
+    private static Data read() {
+        File file = file();
+        if (file.exists()) {
+            try (Reader reader = new FileReader(file)) {
+                Data read = new Gson().fromJson(reader, Data.class);
+                if (read != null) {
+                    // Gson creates plain maps, which aren't thread safe
+                    Data data = new Data();
+                    if (read.nextCheckByPackageMs != null)
+                        data.nextCheckByPackageMs.putAll(read.nextCheckByPackageMs);
+                    if (read.validatorsByUrl != null)
+                        data.validatorsByUrl.putAll(read.validatorsByUrl);
+                    if (read.stampByIconKey != null)
+                        data.stampByIconKey.putAll(read.stampByIconKey);
+                    if (read.iconUrlByWebsite != null)
+                        data.iconUrlByWebsite.putAll(read.iconUrlByWebsite);
+                    return data;
+                }
+            } catch (IOException | JsonParseException e) {
+                Log.w(TAG, "Failed to read icon schedule, it will be reset", e);
+            }
+        }
+        return new Data();
+    }
+
+    /** Saves the schedule after a short delay, batching any other changes made meanwhile */
+    private void scheduleSave() {
+        if (savePending.compareAndSet(false, true)) DelayLib.delayed(this::save, SAVE_DELAY_MS);
+    }
+    /**
+     * Immediately saves the schedule, atomically replacing the previous file.
+     * Saves are serialized by {@link #saveLock}, since the delayed save and an explicit one
+     * would otherwise write the same temp file at once. A separate lock is used so lookups,
+     * which only lock to load the data, don't wait on the disk.
+     */
+    public void save() {
+        final Data data = data();
+        synchronized (saveLock) {
+            savePending.set(false);
+            final File file = file();
+            final File temp = new File(file.getPath() + ".tmp");
+            try (Writer writer = new FileWriter(temp)) {
+                new Gson().toJson(data, writer);
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to save icon schedule", e);
+                return;
+            }
+            if (!temp.renameTo(file)) Log.w(TAG, "Failed to replace icon schedule file");
+        }
+    }
+
+    /** @return True if the icon for this package may be checked for download now */
+    public boolean isDue(String packageName) {
+        Long nextCheckMs = data().nextCheckByPackageMs.get(packageName);
+        return nextCheckMs == null || System.currentTimeMillis() > nextCheckMs;
+    }
+    /** @return True if the icon for this package has been checked for download before */
+    public boolean hasChecked(String packageName) {
+        return data().nextCheckByPackageMs.containsKey(packageName);
+    }
+    /** Sets the time after which the icon for this package may be checked again */
+    public void setNextCheck(String packageName, long nextCheckMs) {
+        data().nextCheckByPackageMs.put(packageName, nextCheckMs);
+        scheduleSave();
+    }
+    /** Allows the icon for this package to be checked immediately */
+    public void remove(String packageName) {
+        if (data().nextCheckByPackageMs.remove(packageName) != null) scheduleSave();
+    }
+
+    /** @return Validators for a previously downloaded url, or null if there are none */
+    @Nullable
+    public Validators getValidators(String url) {
+        return data().validatorsByUrl.get(url);
+    }
+    /** Stores validators for a downloaded url */
+    public void putValidators(String url, Validators validators) {
+        data().validatorsByUrl.put(url, validators);
+        scheduleSave();
+    }
+
+    /**
+     * @return The stamp a stored icon was last checked against,
+     *         or null if it was never stamped
+     * @see IconLoader#iconStampForApp
+     */
+    @Nullable
+    public String getStamp(String iconKey) {
+        return data().stampByIconKey.get(iconKey);
+    }
+    /** Stores the stamp a stored icon was checked against */
+    public void putStamp(String iconKey, String stamp) {
+        if (stamp.equals(data().stampByIconKey.put(iconKey, stamp))) return;
+        scheduleSave();
+    }
+
+    /** @return The url a website's icon was last downloaded from, or null if there is none */
+    @Nullable
+    public String getWebsiteIconUrl(String website) {
+        return data().iconUrlByWebsite.get(website);
+    }
+    /** Stores the url a website's icon was downloaded from, so it needn't be looked up again */
+    public void putWebsiteIconUrl(String website, String url) {
+        if (url.equals(data().iconUrlByWebsite.put(website, url))) return;
+        scheduleSave();
+    }
+
+    /**
+     * Forgets the stamp and validators of a stored icon which was removed,
+     * since they only describe an icon that's no longer there
+     */
+    public void removeIconKey(String iconKey) {
+        final boolean stampRemoved = data().stampByIconKey.remove(iconKey) != null;
+        final boolean validatorsRemoved = data().validatorsByUrl.values()
+                .removeIf(validators -> iconKey.equals(validators.iconKey));
+        if (stampRemoved || validatorsRemoved) scheduleSave();
+    }
+
+    /**
+     * Forgets everything about packages and icons which are no longer needed,
+     * such as those of uninstalled apps
+     * @param keepPackage Tests whether a package (or website) should be kept
+     * @param keepIconKey Tests whether a stored icon's key should be kept
+     * @return The number of entries removed
+     */
+    public int retain(Predicate<String> keepPackage, Predicate<String> keepIconKey) {
+        final Data data = data();
+        int removed = 0;
+        removed += removeIf(data.nextCheckByPackageMs.keySet(), keepPackage.negate());
+        removed += removeIf(data.iconUrlByWebsite.keySet(), keepPackage.negate());
+        removed += removeIf(data.stampByIconKey.keySet(), keepIconKey.negate());
+        removed += removeIf(data.validatorsByUrl.values(),
+                validators -> validators.iconKey != null && !keepIconKey.test(validators.iconKey));
+        if (removed > 0) scheduleSave();
+        return removed;
+    }
+    private static <T> int removeIf(Collection<T> items, Predicate<T> filter) {
+        int removed = 0;
+        for (Iterator<T> iterator = items.iterator(); iterator.hasNext();)
+            if (filter.test(iterator.next())) {
+                iterator.remove();
+                removed++;
+            }
+        return removed;
+    }
+
+    /** Forgets all scheduling and validators, so that every icon is checked again */
+    public void clear() {
+        data().nextCheckByPackageMs.clear();
+        data().validatorsByUrl.clear();
+        data().stampByIconKey.clear();
+        data().iconUrlByWebsite.clear();
+        scheduleSave();
+    }
+}
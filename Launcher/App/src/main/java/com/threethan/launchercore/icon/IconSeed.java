@@ -0,0 +1,116 @@
+package com.threethan.launchercore.icon;
+
+import android.content.res.AssetFileDescriptor;
+import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import com.threethan.launchercore.Core;
+import com.threethan.launchercore.lib.ImageLib;
+import com.threethan.launchercore.lib.StringLib;
+
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Read-only set of icons bundled with the app, so a fresh install has icons for popular apps
+ * before (or without) any downloads.
+ * <p>
+ * The asset uses the same packed format as {@link IconStore}, and is stored uncompressed
+ * in the apk so it can be memory-mapped in place. It's built by the optional
+ * {@code packIconSeed} gradle task; if it wasn't built, the seed is simply empty.
+ * Icons in it are keyed by package name (with a suffix for banners), which is turned into
+ * an icon key here, so the build doesn't need its own copy of the file name rule.
+ */
+public abstract class IconSeed {
+    private static final String TAG = "IconSeed";
+    private static final String ASSET = "icon-seed.pack";
+    private static final String BANNER_SUFFIX = "-banner";
+
+    private static final Map<String, long[]> entries = new HashMap<>();
+    @Nullable private static MappedByteBuffer mapping;
+    private static boolean opened = false;
+
+    private static synchronized void open() {
+        if (opened) return;
+        opened = true;
+        try (AssetFileDescriptor descriptor = Core.context().getAssets().openFd(ASSET);
+             FileInputStream inputStream = new FileInputStream(descriptor.getFileDescriptor())) {
+            final MappedByteBuffer buffer = inputStream.getChannel().map(FileChannel.MapMode.READ_ONLY,
+                    descriptor.getStartOffset(), descriptor.getLength());
+            if (buffer.remaining() < IconStore.HEADER_BYTES
+                    || buffer.getInt() != IconStore.MAGIC || buffer.getInt() != IconStore.VERSION) {
+                Log.w(TAG, "Unrecognized icon seed, it will be ignored");
+                return;
+            }
+            while (buffer.remaining() >= 4) {
+                final int keyLength = buffer.getInt();
+                if (keyLength <= 0 || keyLength > IconStore.MAX_KEY_BYTES
+                        || buffer.remaining() < keyLength + 4) break;
+                byte[] keyBytes = new byte[keyLength];
+                buffer.get(keyBytes);
+                final int dataLength = buffer.getInt();
+                if (dataLength == IconStore.REMOVED) continue;
+                if (dataLength < 0 || buffer.remaining() < dataLength) break;
+                entries.put(iconKeyFor(new String(keyBytes, StandardCharsets.UTF_8)),
+                        new long[] {buffer.position(), dataLength});
+                buffer.position(buffer.position() + dataLength);
+            }
+            mapping = buffer;
+            Log.v(TAG, "Opened icon seed with " + entries.size() + " icons");
+        } catch (FileNotFoundException ignored) {
+            // The seed wasn't built into this apk
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to open icon seed", e);
+        }
+    }
+
+    /** @return The key of a seeded icon, as in {@link IconLoader#iconKeyForApp} */
+    private static String iconKeyFor(String seedKey) {
+        // Package names can't contain a dash, so the suffix is never part of one
+        final boolean banner = seedKey.endsWith(BANNER_SUFFIX);
+        final String packageName = banner
+                ? seedKey.substring(0, seedKey.length() - BANNER_SUFFIX.length()) : seedKey;
+        return StringLib.toValidFilename(packageName) + (banner ? BANNER_SUFFIX : "");
+    }
+
+    /** @return True if the seed has an icon for the key */
+    public static synchronized boolean contains(String key) {
+        open();
+        return entries.containsKey(key);
+    }
+
+    /**
+     * Decodes a seeded icon, subsampled to the size it will be displayed at
+     * @param key Key of the icon, as in {@link IconLoader#iconKeyForApp}
+     * @param config Preferred config, or null for the default (see {@link ImageLib})
+     * @return The icon, or null if the seed has none for the key
+     */
+    @Nullable
+    public static Drawable getDrawable(String key, int targetWidth, int targetHeight,
+                                       @Nullable Bitmap.Config config) {
+        final ByteBuffer data;
+        synchronized (IconSeed.class) {
+            open();
+            final long[] entry = entries.get(key);
+            if (entry == null || mapping == null) return null;
+            ByteBuffer buffer = mapping.duplicate();
+            buffer.position((int) entry[0]);
+            buffer.limit((int) (entry[0] + entry[1]));
+            data = buffer.slice();
+        }
+        final Bitmap bitmap = ImageLib.bitmapFromBuffer(data, targetWidth, targetHeight, config);
+        if (bitmap == null) return null;
+        return new BitmapDrawable(Core.context().getResources(), bitmap);
+    }
+}
@@ -0,0 +1,220 @@
+package com.threethan.launchercore.icon;
+
+import android.os.Build;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import com.threethan.launchercore.Core;
+import com.threethan.launchercore.lib.BitmapPool;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts how icons are loaded, and how long each source takes, so that slow loading can be
+ * traced to memory, disk, decoding, the package manager or the network.
+ * <p>
+ * Recording is lock-free and cheap enough to always be enabled.
+ * Stats can be read with {@link #describe()}, or written to a file with {@link #dump()}
+ * to compare builds or devices.
+ */
+public abstract class IconStats {
+    private static final String TAG = "IconStats";
+    private static final String DUMP_FOLDER = "icon-stats";
+
+    /**
+     * Counts events, and keeps a histogram of how long they took.
+     * Buckets are powers of two in milliseconds, the last bucket holds everything slower.
+     */
+    public static class Timer {
+        private static final int BUCKETS = 14; // Up to 4096ms
+        private final String name;
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+        private final AtomicLong maxNanos = new AtomicLong();
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+        private Timer(String name) {
+            this.name = name;
+        }
+
+        /** @return The current time, to later pass to {@link #stop(long)} */
+        public static long start() {
+            return System.nanoTime();
+        }
+        /** Records an event which started at the given time, and ended now */
+        public void stop(long startNanos) {
+            record(System.nanoTime() - startNanos);
+        }
+        public void record(long nanos) {
+            count.incrementAndGet();
+            totalNanos.addAndGet(nanos);
+            long max;
+            do max = maxNanos.get(); while (nanos > max && !maxNanos.compareAndSet(max, nanos));
+            final long ms = nanos / 1_000_000;
+            int bucket = ms <= 0 ? 0 : 64 - Long.numberOfLeadingZeros(ms);
+            buckets.incrementAndGet(Math.min(bucket, BUCKETS - 1));
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+        /**
+         * Estimates a percentile from the histogram
+         * @param fraction Percentile from 0 to 1
+         * @return Upper bound of the bucket holding that percentile, in ms
+         */
+        public long percentileMs(float fraction) {
+            final long total = count.get();
+            if (total == 0) return 0;
+            final long target = (long) Math.ceil(total * fraction);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += buckets.get(i);
+                if (seen >= target) return i == BUCKETS - 1 ? maxNanos.get() / 1_000_000 : 1L << i;
+            }
+            return maxNanos.get() / 1_000_000;
+        }
+
+        private void reset() {
+            count.set(0);
+            totalNanos.set(0);
+            maxNanos.set(0);
+            for (int i = 0; i < BUCKETS; i++) buckets.set(i, 0);
+        }
+
+        /** @return A single line summary, or null if nothing was recorded */
+        @Nullable
+        private String describe() {
+            final long total = count.get();
+            if (total == 0) return null;
+            return String.format(Locale.US,
+                    "%-28s %7d  avg %6.1fms  p50 ≤%4dms  p90 ≤%4dms  p99 ≤%4dms  max %5dms",
+                    name, total, totalNanos.get() / 1e6 / total,
+                    percentileMs(0.5f), percentileMs(0.9f), percentileMs(0.99f),
+                    maxNanos.get() / 1_000_000);
+        }
+    }
+
+    /** Icons which were already in memory */
+    public static final Timer memoryHit = new Timer("memory hit");
+    /** Icons which weren't in memory, and had to be loaded */
+    public static final Timer memoryMiss = new Timer("memory miss");
+    /** Time loads spent queued, waiting for a loader thread */
+    public static final Timer queueWait = new Timer("queue wait");
+    /** Icons read and decoded from the custom icon store */
+    public static final Timer customHit = new Timer("custom store hit");
+    /** Icons loaded from the icon pack */
+    public static final Timer iconPackHit = new Timer("icon pack hit");
+    /** Icons read and decoded from the downloaded icon store */
+    public static final Timer cacheHit = new Timer("cache store hit");
+    /** Icons decoded from the seed bundled with the app */
+    public static final Timer seedHit = new Timer("seed hit");
+    /** Package manager icons read from the cache, where they were stored once rasterized */
+    public static final Timer packageCacheHit = new Timer("package icon cache hit");
+    /** Icons loaded from the package manager */
+    public static final Timer packageManager = new Timer("package manager");
+    /** Loads which found no icon at all */
+    public static final Timer loadFailure = new Timer("load failure");
+    /** Apps skipped without any request, since no mirror lists their icon */
+    public static final Timer downloadSkipped = new Timer("download skipped");
+
+    private static final Map<String, Timer> downloadTimers = new ConcurrentHashMap<>();
+    private static final AtomicLong bytesDownloaded = new AtomicLong();
+
+    /**
+     * Gets the timer for downloads from a mirror which had a given result
+     * @param url Url of the download; everything up to the file name identifies the mirror
+     * @param result Outcome of the download, such as "updated" or "failed"
+     */
+    public static Timer download(String url, String result) {
+        final String mirror = url.substring(0, Math.max(0, url.lastIndexOf('/')))
+                .replaceFirst("^https?://(raw\\.githubusercontent\\.com/)?", "");
+        final String key = "download " + result + " " + mirror;
+        return downloadTimers.computeIfAbsent(key, Timer::new);
+    }
+    /** Adds to the number of bytes received for icon downloads */
+    public static void addBytesDownloaded(long bytes) {
+        bytesDownloaded.addAndGet(bytes);
+    }
+
+    private static Timer[] loadTimers() {
+        return new Timer[] {memoryHit, memoryMiss, queueWait, customHit, iconPackHit, cacheHit,
+                seedHit, packageCacheHit, packageManager, loadFailure, downloadSkipped};
+    }
+
+    /** @return A multi-line, human-readable summary of all stats */
+    public static String describe() {
+        StringBuilder builder = new StringBuilder();
+        final long hits = memoryHit.getCount();
+        final long requests = hits + memoryMiss.getCount();
+        builder.append(String.format(Locale.US, "Memory hit rate: %.1f%% of %d requests\n",
+                requests == 0 ? 0f : hits * 100f / requests, requests));
+        for (Timer timer : loadTimers()) {
+            final String line = timer.describe();
+            if (line != null) builder.append(line).append('\n');
+        }
+        for (Timer timer : new TreeMap<>(downloadTimers).values()) {
+            final String line = timer.describe();
+            if (line != null) builder.append(line).append('\n');
+        }
+        builder.append(String.format(Locale.US, "Downloaded: %d KB\n", bytesDownloaded.get() / 1024));
+        builder.append(String.format(Locale.US, "Memory cache: %d/%d KB, %d icons\n",
+                IconLoader.cachedIcons.size() / 1024, IconLoader.cachedIcons.maxSize() / 1024,
+                IconLoader.cachedIcons.snapshot().size()));
+        builder.append("Bitmap pool: ").append(BitmapPool.describe()).append('\n');
+        builder.append(String.format(Locale.US, "Queued loads: %d\n", IconLoader.getQueuedLoadCount()));
+        return builder.toString();
+    }
+
+    /** Clears all stats, so a particular interaction can be measured on its own */
+    public static void reset() {
+        for (Timer timer : loadTimers()) timer.reset();
+        downloadTimers.clear();
+        bytesDownloaded.set(0);
+    }
+
+    /**
+     * Writes the current stats to a new file in the app's external files directory,
+     * along with the device and build, so dumps from different devices can be compared
+     * @return The file written, or null if it couldn't be written
+     */
+    @Nullable
+    public static File dump() {
+        final File folder = new File(Core.context().getExternalFilesDir(""), DUMP_FOLDER);
+        //noinspection ResultOfMethodCallIgnored
+        folder.mkdirs();
+        final String timestamp
+                = new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(new Date());
+        final File file = new File(folder, "icon-stats-" + timestamp + ".txt");
+        try (Writer writer = new FileWriter(file)) {
+            String versionName;
+            try {
+                versionName = Core.context().getPackageManager()
+                        .getPackageInfo(Core.context().getPackageName(), 0).versionName;
+            } catch (Exception e) {
+                versionName = "unknown";
+            }
+            writer.write("Launcher " + versionName + " on " + Build.MANUFACTURER + " "
+                    + Build.MODEL + " (api " + Build.VERSION.SDK_INT + ")\n");
+            writer.write(timestamp + "\n\n");
+            writer.write(describe());
+            Log.i(TAG, "Dumped icon stats to " + file.getAbsolutePath());
+            return file;
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to dump icon stats", e);
+            return null;
+        }
+    }
+}
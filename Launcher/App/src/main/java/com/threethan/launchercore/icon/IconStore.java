@@ -0,0 +1,560 @@
+package com.threethan.launchercore.icon;
+
+import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import com.threethan.launchercore.Core;
+import com.threethan.launchercore.lib.FileLib;
+import com.threethan.launchercore.lib.ImageLib;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Stores many encoded icons in a single packed file, rather than one file per icon.
+ * <p>
+ * The file starts with a small header, followed by records which are only ever appended:
+ * each is the key, then the length and bytes of the icon (or a length of -1 if it was removed).
+ * On first use the record headers are scanned to build an in-memory index, and the file is
+ * memory-mapped, so icons are decoded straight from slices of the mapping without any
+ * further file opens (or, on api 28+, copies).
+ * <p>
+ * Replacing or removing icons leaves stale records behind, so the file is compacted
+ * once they take up more space than the live icons.
+ * <p>
+ * The time each icon was last used is kept in a small file next to the store,
+ * so the least recently used icons can be evicted if the store grows too large.
+ */
+public class IconStore {
+    private static final String TAG = "IconStore";
+    static final int MAGIC = 0x4C49504B; // "LIPK"
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 8;
+    static final int REMOVED = -1;
+    static final int MAX_KEY_BYTES = 1024;
+    /** Stale bytes are never compacted below this, as it wouldn't be worth the rewrite */
+    private static final long COMPACT_MIN_STALE_BYTES = 512 * 1024;
+
+    /** Location of an icon's bytes in the file */
+    private static class Entry {
+        final long offset;
+        final int length;
+        Entry(long offset, int length) {
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    private final String fileName;
+    @Nullable private final String legacyFolder;
+    private final Map<String, Entry> entries = new HashMap<>();
+    /** When each icon was last read or written, in ms. Icons from before this was tracked have none */
+    private final Map<String, Long> lastUsedByKey = new HashMap<>();
+    private boolean usageChanged = false;
+    private boolean opened = false;
+    private long fileLength = 0;
+    private long liveBytes = 0;
+    /** Mapping of the file, or null if it needs to be (re)mapped */
+    @Nullable private MappedByteBuffer mapping;
+
+    /**
+     * @param fileName Name of the packed file, inside the app's data directory
+     * @param legacyFolder Folder (relative to the data directory) holding icons as individual
+     *                     webp files, which will be moved into the store when it's first used
+     */
+    public IconStore(String fileName, @Nullable String legacyFolder) {
+        this.fileName = fileName;
+        this.legacyFolder = legacyFolder;
+    }
+
+    private File file() {
+        return new File(Core.context().getApplicationInfo().dataDir, fileName);
+    }
+    @Nullable
+    private File legacyFolder() {
+        if (legacyFolder == null) return null;
+        return new File(Core.context().getApplicationInfo().dataDir + legacyFolder);
+    }
+
+    private File usageFile() {
+        return new File(Core.context().getApplicationInfo().dataDir, fileName + ".used");
+    }
+
+    private void open() {
+        if (opened) return;
+        opened = true;
+        scan();
+        importLegacy();
+        readUsage();
+    }
+
+    /** Rebuilds the index from the file, dropping any record which was only partially written */
+    private void scan() {
+        entries.clear();
+        liveBytes = 0;
+        fileLength = 0;
+        mapping = null;
+        final File file = file();
+        if (!file.exists() || file.length() < HEADER_BYTES) {
+            reset();
+            return;
+        }
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            final long length = randomAccessFile.length();
+            MappedByteBuffer buffer = randomAccessFile.getChannel()
+                    .map(FileChannel.MapMode.READ_ONLY, 0, length);
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                Log.w(TAG, "Unrecognized icon store " + fileName + ", it will be reset");
+                reset();
+                return;
+            }
+            long valid = HEADER_BYTES;
+            while (buffer.remaining() >= 4) {
+                final int keyLength = buffer.getInt();
+                if (keyLength <= 0 || keyLength > MAX_KEY_BYTES
+                        || buffer.remaining() < keyLength + 4) break;
+                byte[] keyBytes = new byte[keyLength];
+                buffer.get(keyBytes);
+                final String key = new String(keyBytes, StandardCharsets.UTF_8);
+                final int dataLength = buffer.getInt();
+                if (dataLength == REMOVED) {
+                    Entry removed = entries.remove(key);
+                    if (removed != null) liveBytes -= removed.length;
+                } else {
+                    if (dataLength < 0 || buffer.remaining() < dataLength) break;
+                    Entry previous = entries.put(key, new Entry(buffer.position(), dataLength));
+                    if (previous != null) liveBytes -= previous.length;
+                    liveBytes += dataLength;
+                    buffer.position(buffer.position() + dataLength);
+                }
+                valid = buffer.position();
+            }
+            if (valid < length) {
+                Log.w(TAG, "Dropping " + (length - valid) + " trailing bytes from " + fileName);
+                randomAccessFile.setLength(valid);
+            } else mapping = buffer;
+            fileLength = valid;
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to read icon store " + fileName + ", it will be reset", e);
+            reset();
+        }
+    }
+
+    /**
+     * Replaces the file with an empty store. As with {@link #compact}, it's written to a new
+     * file rather than truncated, so buffers previously returned by {@link #get} remain valid.
+     */
+    private void reset() {
+        entries.clear();
+        liveBytes = 0;
+        mapping = null;
+        fileLength = 0;
+        final File file = file();
+        final File temp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream outputStream = new FileOutputStream(temp, false)) {
+            outputStream.write(header().array());
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to create icon store " + fileName, e);
+            //noinspection ResultOfMethodCallIgnored
+            temp.delete();
+            return;
+        }
+        // Deleting the old file first is just as safe, since existing mappings keep it alive
+        if (!temp.renameTo(file) && (!file.delete() || !temp.renameTo(file))) {
+            Log.e(TAG, "Failed to replace icon store " + fileName);
+            return;
+        }
+        fileLength = HEADER_BYTES;
+    }
+
+    private static ByteBuffer header() {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        header.putInt(MAGIC).putInt(VERSION);
+        header.flip();
+        return header;
+    }
+
+    /**
+     * Moves icons from the legacy one-file-per-icon folder into the store.
+     * Each file is only deleted once it's stored, and the folder once it's empty,
+     * so anything which couldn't be imported is kept (and retried next time).
+     */
+    private void importLegacy() {
+        final File folder = legacyFolder();
+        if (folder == null || !folder.isDirectory()) return;
+        int imported = 0;
+        File[] files = folder.listFiles();
+        if (files != null) for (File file : files) {
+            final String name = file.getName();
+            if (!name.endsWith(".webp")) continue;
+            final String key = name.substring(0, name.length() - ".webp".length());
+            // A stored icon is newer than the legacy one, which is then just left over
+            boolean stored = entries.containsKey(key);
+            if (!stored) try (InputStream inputStream = new FileInputStream(file)) {
+                stored = put(key, readAll(inputStream));
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to import legacy icon " + name, e);
+            }
+            if (stored && file.delete()) imported++;
+        }
+        Log.i(TAG, "Imported " + imported + " legacy icons into " + fileName);
+        files = folder.listFiles();
+        if (files != null && files.length == 0 && !folder.delete())
+            Log.w(TAG, "Failed to delete legacy folder of " + fileName);
+    }
+    private static byte[] readAll(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        byte[] buffer = new byte[65536];
+        int length;
+        while ((length = inputStream.read(buffer)) > 0) outputStream.write(buffer, 0, length);
+        return outputStream.toByteArray();
+    }
+
+    @Nullable
+    private MappedByteBuffer mapping() throws IOException {
+        if (mapping == null || mapping.capacity() < fileLength) {
+            try (RandomAccessFile randomAccessFile = new RandomAccessFile(file(), "r")) {
+                mapping = randomAccessFile.getChannel()
+                        .map(FileChannel.MapMode.READ_ONLY, 0, fileLength);
+            }
+        }
+        return mapping;
+    }
+
+    /**
+     * Opens the store, which scans its file and imports any legacy icons the first time.
+     * Every other function does this if needed, but it may be slow, so this can be called
+     * ahead of time on a background thread.
+     */
+    public synchronized void load() {
+        open();
+    }
+
+    /** @return True if the store has an icon for the key */
+    public synchronized boolean contains(String key) {
+        open();
+        return entries.containsKey(key);
+    }
+
+    /**
+     * Gets the encoded bytes of an icon, without copying them
+     * @param key Key of the icon
+     * @return A read-only buffer holding exactly the icon's bytes, or null if there is none
+     */
+    @Nullable
+    public synchronized ByteBuffer get(String key) {
+        open();
+        final Entry entry = entries.get(key);
+        if (entry == null) return null;
+        markUsed(key);
+        try {
+            ByteBuffer buffer = mapping();
+            if (buffer == null) return null;
+            buffer = buffer.duplicate();
+            buffer.position((int) entry.offset);
+            buffer.limit((int) (entry.offset + entry.length));
+            return buffer.slice();
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to map icon store " + fileName, e);
+            return null;
+        }
+    }
+
+    /**
+     * Decodes an icon from the store at full size
+     * @param key Key of the icon
+     * @return The decoded bitmap, or null if there's no (valid) icon
+     */
+    @Nullable
+    public Bitmap getBitmap(String key) {
+        return getBitmap(key, 0, 0, null);
+    }
+    /**
+     * Decodes an icon from the store, subsampled to the size it will be displayed at
+     * @param key Key of the icon
+     * @param config Preferred config, or null for the default (see {@link ImageLib})
+     * @return The decoded bitmap, or null if there's no (valid) icon
+     */
+    @Nullable
+    public Bitmap getBitmap(String key, int targetWidth, int targetHeight,
+                            @Nullable Bitmap.Config config) {
+        final ByteBuffer data = get(key);
+        if (data == null) return null;
+        return ImageLib.bitmapFromBuffer(data, targetWidth, targetHeight, config);
+    }
+
+    /**
+     * Decodes an icon from the store as a drawable, subsampled to the size it will be displayed at
+     * @param key Key of the icon
+     * @param config Preferred config, or null for the default (see {@link ImageLib})
+     * @return The drawable, or null if there's no (valid) icon
+     */
+    @Nullable
+    public Drawable getDrawable(String key, int targetWidth, int targetHeight,
+                                @Nullable Bitmap.Config config) {
+        final Bitmap bitmap = getBitmap(key, targetWidth, targetHeight, config);
+        if (bitmap == null) return null;
+        return new BitmapDrawable(Core.context().getResources(), bitmap);
+    }
+
+    /**
+     * Adds or replaces an icon
+     * @param key Key of the icon
+     * @param data Encoded image bytes
+     * @return True if the icon was stored
+     */
+    public synchronized boolean put(String key, byte[] data) {
+        open();
+        final byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        if (!append(keyBytes, data)) return false;
+        final long dataOffset = fileLength + 4 + keyBytes.length + 4;
+        Entry previous = entries.put(key, new Entry(dataOffset, data.length));
+        if (previous != null) liveBytes -= previous.length;
+        liveBytes += data.length;
+        fileLength = dataOffset + data.length;
+        markUsed(key);
+        compactIfNeeded();
+        return true;
+    }
+
+    /**
+     * Compresses a bitmap as webp, then adds or replaces it in the store
+     * @param key Key of the icon
+     * @param bitmap Bitmap to store
+     * @param quality Webp quality, 0-100
+     * @return True if the icon was stored
+     */
+    public boolean putBitmap(String key, Bitmap bitmap, int quality) {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        if (!bitmap.compress(Bitmap.CompressFormat.WEBP, quality, outputStream)) return false;
+        return put(key, outputStream.toByteArray());
+    }
+
+    /**
+     * Removes an icon, if it's in the store
+     * @param key Key of the icon
+     */
+    public synchronized void remove(String key) {
+        open();
+        final Entry entry = entries.get(key);
+        if (entry == null) return;
+        final byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        if (!append(keyBytes, null)) return;
+        entries.remove(key);
+        if (lastUsedByKey.remove(key) != null) usageChanged = true;
+        liveBytes -= entry.length;
+        fileLength += 4 + keyBytes.length + 4;
+        compactIfNeeded();
+    }
+
+    /**
+     * Removes every icon whose key matches a filter
+     * @return The keys of the icons removed
+     */
+    public synchronized List<String> removeIf(Predicate<String> filter) {
+        open();
+        List<String> keys = new ArrayList<>();
+        for (String key : entries.keySet()) if (filter.test(key)) keys.add(key);
+        removeAll(keys);
+        return keys;
+    }
+
+    /**
+     * Removes the least recently used icons until the live icons take up no more than maxBytes.
+     * Icons which were never marked as used are removed first, oldest writes first.
+     * @return The keys of the icons removed
+     */
+    public synchronized List<String> evictToSize(long maxBytes) {
+        open();
+        if (liveBytes <= maxBytes) return new ArrayList<>();
+        List<String> keys = new ArrayList<>(entries.keySet());
+        keys.sort(Comparator.<String>comparingLong(key -> {
+            final Long lastUsed = lastUsedByKey.get(key);
+            return lastUsed == null ? 0 : lastUsed;
+        }).thenComparingLong(key -> entries.get(key).offset));
+        List<String> evicted = new ArrayList<>();
+        long remainingBytes = liveBytes;
+        for (String key : keys) {
+            if (remainingBytes <= maxBytes) break;
+            evicted.add(key);
+            remainingBytes -= entries.get(key).length;
+        }
+        removeAll(evicted);
+        return evicted;
+    }
+
+    /**
+     * Drops many icons from the index at once, then rewrites the file without them,
+     * which is much cheaper than appending a removal record for each
+     */
+    private void removeAll(Collection<String> keys) {
+        if (keys.isEmpty()) return;
+        for (String key : keys) {
+            final Entry entry = entries.remove(key);
+            if (entry != null) liveBytes -= entry.length;
+            lastUsedByKey.remove(key);
+        }
+        usageChanged = true;
+        // If this fails, the removed icons come back when the file is next scanned
+        compact();
+    }
+
+    private void markUsed(String key) {
+        lastUsedByKey.put(key, System.currentTimeMillis());
+        usageChanged = true;
+    }
+    private void readUsage() {
+        final File file = usageFile();
+        if (!file.exists()) return;
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                final int split = line.lastIndexOf(' ');
+                if (split <= 0) continue;
+                final String key = line.substring(0, split);
+                if (entries.containsKey(key))
+                    lastUsedByKey.put(key, Long.parseLong(line.substring(split + 1)));
+            }
+        } catch (IOException | NumberFormatException e) {
+            Log.w(TAG, "Failed to read usage of " + fileName, e);
+        }
+    }
+    /** Saves when each icon was last used, if that changed since it was last saved */
+    public synchronized void saveUsage() {
+        if (!opened || !usageChanged) return;
+        final File file = usageFile();
+        final File temp = new File(file.getPath() + ".tmp");
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(temp))) {
+            for (Map.Entry<String, Long> entry : lastUsedByKey.entrySet()) {
+                writer.write(entry.getKey() + " " + entry.getValue());
+                writer.newLine();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to save usage of " + fileName, e);
+            return;
+        }
+        if (temp.renameTo(file)) usageChanged = false;
+        else Log.w(TAG, "Failed to replace usage of " + fileName);
+    }
+
+    /**
+     * Appends a record to the end of the file
+     * @param data Icon bytes, or null to record a removal
+     * @return True if written. If not, the index is rebuilt to match what's actually on disk.
+     */
+    private boolean append(byte[] keyBytes, @Nullable byte[] data) {
+        if (fileLength == 0) return false; // The file couldn't be created
+        final int dataLength = data == null ? 0 : data.length;
+        ByteBuffer record = ByteBuffer.allocate(4 + keyBytes.length + 4 + dataLength);
+        record.putInt(keyBytes.length).put(keyBytes).putInt(data == null ? REMOVED : data.length);
+        if (data != null) record.put(data);
+        record.flip();
+        try (FileOutputStream outputStream = new FileOutputStream(file(), true)) {
+            FileChannel channel = outputStream.getChannel();
+            while (record.hasRemaining()) channel.write(record);
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to write to icon store " + fileName, e);
+            scan();
+            return false;
+        }
+    }
+
+    private void compactIfNeeded() {
+        final long staleBytes = fileLength - HEADER_BYTES - liveBytes;
+        if (staleBytes > COMPACT_MIN_STALE_BYTES && staleBytes > liveBytes) compact();
+    }
+
+    /**
+     * Rewrites the file with only the current icons, atomically replacing the old one.
+     * Buffers previously returned by {@link #get} remain valid.
+     */
+    public synchronized void compact() {
+        open();
+        final File file = file();
+        final File temp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream outputStream = new FileOutputStream(temp, false)) {
+            FileChannel channel = outputStream.getChannel();
+            ByteBuffer source = mapping();
+            writeFully(channel, header());
+            if (source != null) for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                final byte[] keyBytes = entry.getKey().getBytes(StandardCharsets.UTF_8);
+                final Entry value = entry.getValue();
+                ByteBuffer recordHeader = ByteBuffer.allocate(4 + keyBytes.length + 4);
+                recordHeader.putInt(keyBytes.length).put(keyBytes).putInt(value.length);
+                recordHeader.flip();
+                writeFully(channel, recordHeader);
+                ByteBuffer data = source.duplicate();
+                data.position((int) value.offset);
+                data.limit((int) (value.offset + value.length));
+                writeFully(channel, data);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to compact icon store " + fileName, e);
+            //noinspection ResultOfMethodCallIgnored
+            temp.delete();
+            return;
+        }
+        if (!temp.renameTo(file)) {
+            Log.e(TAG, "Failed to replace icon store " + fileName);
+            return;
+        }
+        scan();
+        Log.v(TAG, "Compacted " + fileName + " to " + fileLength + " bytes");
+    }
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) channel.write(buffer);
+    }
+
+    /** Removes all icons, including any which haven't been imported from the legacy folder */
+    public synchronized void clear() {
+        final File folder = legacyFolder();
+        if (folder != null && folder.exists()) FileLib.delete(folder);
+        opened = true;
+        reset();
+        lastUsedByKey.clear();
+        //noinspection ResultOfMethodCallIgnored
+        usageFile().delete();
+        usageChanged = false;
+    }
+
+    /** @return The size of the packed file, in bytes */
+    public synchronized long sizeBytes() {
+        open();
+        return fileLength;
+    }
+    /** @return The number of bytes taken by the icons themselves, excluding stale records */
+    public synchronized long liveBytes() {
+        open();
+        return liveBytes;
+    }
+    /** @return The number of icons in the store */
+    public synchronized int size() {
+        open();
+        return entries.size();
+    }
+}
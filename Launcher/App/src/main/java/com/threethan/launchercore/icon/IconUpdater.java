@@ -5,58 +5,54 @@ import android.graphics.Bitmap;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 
+import androidx.annotation.Nullable;
+
 import com.threethan.launchercore.Core;
+import com.threethan.launchercore.lib.Connectivity;
+import com.threethan.launchercore.lib.HostHealth;
+import com.threethan.launchercore.lib.HttpLib;
 import com.threethan.launchercore.lib.ImageLib;
 import com.threethan.launchercore.util.App;
 
-import java.io.DataInputStream;
-import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.net.URL;
+import java.net.HttpURLConnection;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BooleanSupplier;
 import java.util.function.Consumer;
 
 /**
  * This abstract class is dedicated to downloading icons from online repositories
- * for apps and added websites.
+ * for apps and added websites. Websites which no repository has are searched for
+ * the icons they declare themselves (see {@link WebIconResolver}).
  * <p>
  * Its functions are called by the Icon class. If no downloadable icon is found,
  * the Icon class will then decide on the icon to be used.
  */
 public abstract class IconUpdater {
 
-    // Repository URLs:
-    // Each URL will be tried in order: the first with a file matching the package name will be used
-    private static final String[] ICON_URLS_SQUARE = {
-            "https://raw.githubusercontent.com/basti564/LauncherIcons/main/oculus_square/%s.jpg",
-            "https://raw.githubusercontent.com/basti564/LauncherIcons/main/pico_square/%s.png",
-            "https://raw.githubusercontent.com/basti564/LauncherIcons/main/viveport_square/%s.webp",
-            "https://raw.githubusercontent.com/threethan/QuestLauncherImages/main/icon/%s.jpg",
-            "https://raw.githubusercontent.com/veticia/binaries/main/icons/%s.png",
-    };
-    private static final String[] ICON_URLS_BANNER = {
-            "https://raw.githubusercontent.com/basti564/LauncherIcons/main/oculus_landscape/%s.jpg",
-            "https://raw.githubusercontent.com/basti564/LauncherIcons/main/pico_landscape/%s.png",
-            "https://raw.githubusercontent.com/basti564/LauncherIcons/main/viveport_landscape/%s.webp",
-            "https://raw.githubusercontent.com/threethan/QuestLauncherImages/main/banner/%s.jpg",
-            "https://raw.githubusercontent.com/veticia/binaries/main/banners/%s.png",
-    };
+    // Repository urls are read from an asset shared with the build, see IconMirrors.
+    // Repositories known not to have a file (see IconRepo) are skipped without being requested.
 
     private static final ConcurrentHashMap<String, Object> locks = new ConcurrentHashMap<>();
 
     /**
-     * Stores the time when we're next allowed to try to download an icon for a package.
+     * Stores the time when we're next allowed to try to download an icon for a package,
+     * as well as validators for icons which have already been downloaded.
      * <p>
-     * Downloads are NOT automatically called at this time, but will be called asynchronously
-     * when the icon is next checked/displayed.
+     * Downloads are NOT automatically called at this time, but are made in bulk by
+     * {@link #refreshAll} when the launcher's maintenance job next runs.
      * <p>
-     * Since this isn't stored persistently, all icons will be rechecked when the app is fully quit.
-     * This is a non-issue on LL since the LauncherService stays open persistently.
+     * This is stored persistently, so icons are not all rechecked when the app is fully quit.
      */
-    public static final ConcurrentHashMap<String, Long> nextCheckByPackageMs = new ConcurrentHashMap<>();
+    public static final IconSchedule schedule = new IconSchedule();
 
     // How many minutes before we can recheck an icon that hasn't downloaded
     private static final long ICON_CHECK_TIME_MINUTES_VR = 1;
@@ -65,7 +61,11 @@ public abstract class IconUpdater {
 
 
     /**
-     * Starts the download of an icon, if one should be downloaded for that app
+     * Starts the download of an icon, if one has never been checked for that app.
+     * <p>
+     * This is called when icons are displayed, so only new apps are downloaded here;
+     * retries and updates of icons which were already checked are left to {@link #refreshAll},
+     * keeping network and encoding work out of interactive use.
      * @param app App for which to download an icon image
      * @param callback Called when the download completes successfully and the icon is changed
      */
@@ -74,14 +74,46 @@ public abstract class IconUpdater {
     }
 
     /**
-     * Check if an icon should be downloaded for a particular app
+     * Check if an icon should be downloaded for a particular app when it's displayed
      * @param app Application info of the app (currently only requires packageName)
      * @return True if the icon should be downloaded
      */
     private static synchronized boolean shouldDownload(ApplicationInfo app) {
-        if (!nextCheckByPackageMs.containsKey(app.packageName)) return true;
-        final long nextCheckMs = Objects.requireNonNull(nextCheckByPackageMs.get(app.packageName));
-        return System.currentTimeMillis() > nextCheckMs;
+        return !schedule.hasChecked(app.packageName);
+    }
+
+    /**
+     * Marks an app which has never been checked as checked, so its icon isn't downloaded when
+     * it's displayed, but only once it's next due for an update. Used for bundled icons.
+     */
+    public static void deferFirstCheck(String packageName) {
+        if (schedule.hasChecked(packageName)) return;
+        schedule.setNextCheck(packageName,
+                System.currentTimeMillis() + ICON_UPDATE_TIME_MINUTES_VR*1000*60);
+    }
+
+    /**
+     * Checks the icon of every given app which is due, one after another on the calling thread.
+     * Unchanged icons are validated with conditional requests, so they aren't downloaded again.
+     * <p>
+     * Meant to be run in bulk while the device is idle; see the launcher's IconRefreshJob.
+     * @param apps Apps whose icons to check
+     * @param stopped Checked between apps; returns true if the refresh should stop early
+     * @return The number of icons which were checked
+     */
+    public static int refreshAll(Collection<ApplicationInfo> apps, BooleanSupplier stopped) {
+        int checked = 0;
+        for (ApplicationInfo app : apps) {
+            if (stopped.getAsBoolean() || !Connectivity.isOnline()) break;
+            if (!schedule.isDue(app.packageName)) continue;
+            schedule.setNextCheck(app.packageName,
+                    System.currentTimeMillis() + ICON_CHECK_TIME_MINUTES_VR*1000*60);
+            // Updated icons replace the cached drawable, and are shown when next bound
+            downloadNow(app, drawable -> {});
+            checked++;
+        }
+        schedule.save();
+        return checked;
     }
 
     /**
@@ -91,42 +123,128 @@ public abstract class IconUpdater {
      */
     public static void download(ApplicationInfo app, final Consumer<Drawable> callback) {
         final String packageName = app.packageName;
+        if (!Connectivity.isOnline()) {
+            deferUntilOnline(app, callback);
+            return;
+        }
         final int delayMs = (int) (ICON_CHECK_TIME_MINUTES_VR*1000*60);
-        nextCheckByPackageMs.put(packageName, System.currentTimeMillis() + delayMs);
+        schedule.setNextCheck(packageName, System.currentTimeMillis() + delayMs);
 
+        HttpLib.execute(() -> downloadNow(app, callback));
+    }
+
+    /**
+     * Downloads an icon on the calling thread, trying each mirror which may have it in order
+     * @param app App for which to download an icon image
+     * @param callback Called when the download completes successfully
+     */
+    private static void downloadNow(ApplicationInfo app, final Consumer<Drawable> callback) {
+        final String packageName = app.packageName;
+        final int delayMs = (int) (ICON_CHECK_TIME_MINUTES_VR*1000*60);
         final boolean isBanner = App.isBanner(app);
-        final File iconFile = IconLoader.iconCacheFileForApp(app);
-
-        Thread thread = new Thread(() -> {
-            Object lock = locks.putIfAbsent(packageName, new Object());
-            if (lock == null) lock = locks.get(packageName);
-            synchronized (Objects.requireNonNull(lock)) {
-                try {
-                    final String file = getDownloadString(app);
-                    for (final String url : (isBanner ? ICON_URLS_BANNER : ICON_URLS_SQUARE)) {
-                        if (downloadIconFromUrl(String.format(url, file), iconFile)) {
-                            final int delayMsUpd = (int) (ICON_UPDATE_TIME_MINUTES_VR*1000*60);
-                            nextCheckByPackageMs.put(packageName,
-                                    System.currentTimeMillis() + delayMsUpd);
-                            IconLoader.saveIcon(app, iconFile);
-                            callback.accept(new BitmapDrawable(Core.context().getResources(),
-                                    ImageLib.bitmapFromFile(iconFile)));
-                            return;
-                        }
-                    }
-                } catch (Exception e) {
-                    e.printStackTrace();
-                } finally {
-                    // Set the icon to now download if we either successfully downloaded it,
-                    // or the download tried and failed
-                    locks.remove(packageName);
+        final String iconKey = IconLoader.iconKeyForApp(app);
+
+        Object lock = locks.putIfAbsent(packageName, new Object());
+        if (lock == null) lock = locks.get(packageName);
+        synchronized (Objects.requireNonNull(lock)) {
+            try {
+                final String file = getDownloadString(app);
+                final List<String> urls = IconRepo.candidateUrls(
+                        isBanner ? IconMirrors.banner() : IconMirrors.square(), file);
+                final boolean website = App.isWebsite(packageName);
+                if (urls.isEmpty() && !website) {
+                    IconStats.downloadSkipped.record(0);
+                    // No repository has this icon, so there's no point rechecking it soon
+                    final int delayMsUpd = (int) (ICON_UPDATE_TIME_MINUTES_VR*1000*60);
+                    schedule.setNextCheck(packageName, System.currentTimeMillis() + delayMsUpd);
+                    return;
+                }
+                long retryTimeMs = 0;
+                for (final String url : urls) {
+                    final DownloadResult result
+                            = downloadIconFromUrl(url, iconKey, onUpdated(app, callback));
+                    if (result == DownloadResult.SKIPPED) retryTimeMs = Math.max(retryTimeMs,
+                            HostHealth.getRetryTimeMs(HostHealth.hostOf(url)));
+                    if (result == DownloadResult.FAILED || result == DownloadResult.SKIPPED)
+                        continue;
+
+                    final String stamp = IconLoader.iconStampForApp(app);
+                    if (stamp != null) schedule.putStamp(iconKey, stamp);
+                    final int delayMsUpd = (int) (ICON_UPDATE_TIME_MINUTES_VR*1000*60);
+                    schedule.setNextCheck(packageName, System.currentTimeMillis() + delayMsUpd);
+                    return;
                 }
+                // Most websites aren't in any repository, but declare icons of their own
+                if (website && Connectivity.isOnline() && downloadWebsiteIcon(app, iconKey, callback)) {
+                    final int delayMsUpd = (int) (ICON_UPDATE_TIME_MINUTES_VR*1000*60);
+                    schedule.setNextCheck(packageName, System.currentTimeMillis() + delayMsUpd);
+                    return;
+                }
+                if (!Connectivity.isOnline()) deferUntilOnline(app, callback);
+                // Don't recheck until a failing mirror may be tried again
+                else if (retryTimeMs > System.currentTimeMillis() + delayMs)
+                    schedule.setNextCheck(packageName, retryTimeMs);
+            } catch (Exception e) {
+                e.printStackTrace();
+            } finally {
+                // Set the icon to now download if we either successfully downloaded it,
+                // or the download tried and failed
+                locks.remove(packageName);
             }
-        });
-        thread.setPriority(Thread.MIN_PRIORITY);
-        thread.start();
+        }
     }
 
+    /** @return A consumer which shows and caches a newly stored icon */
+    private static Consumer<Bitmap> onUpdated(ApplicationInfo app, Consumer<Drawable> callback) {
+        // The bitmap which was stored is displayed as-is, rather than decoded again
+        return bitmap -> {
+            final Drawable drawable = new BitmapDrawable(Core.context().getResources(), bitmap);
+            IconLoader.cacheIcon(app, drawable);
+            callback.accept(drawable);
+        };
+    }
+
+    /**
+     * Downloads a website's icon from the site itself. The url it was last found at is revalidated
+     * first, so the site only needs to be searched again if that icon has gone.
+     * @return True if an icon was downloaded, or the stored one is still current
+     */
+    private static boolean downloadWebsiteIcon(ApplicationInfo app, String iconKey,
+                                               Consumer<Drawable> callback) {
+        final String website = app.packageName;
+        final String knownUrl = schedule.getWebsiteIconUrl(website);
+        if (knownUrl != null) {
+            final DownloadResult result
+                    = downloadIconFromUrl(knownUrl, iconKey, onUpdated(app, callback));
+            if (result == DownloadResult.UPDATED || result == DownloadResult.NOT_MODIFIED)
+                return true;
+        }
+        final List<String> urls;
+        try {
+            urls = WebIconResolver.resolve(website);
+        } catch (IOException e) {
+            return false;
+        }
+        for (final String url : urls) {
+            if (url.equals(knownUrl)) continue;
+            final DownloadResult result
+                    = downloadIconFromUrl(url, iconKey, onUpdated(app, callback));
+            if (result == DownloadResult.UPDATED || result == DownloadResult.NOT_MODIFIED) {
+                schedule.putWebsiteIconUrl(website, url);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Waits for the network to return before checking an icon,
+     * rather than failing every mirror while offline
+     */
+    private static void deferUntilOnline(ApplicationInfo app, final Consumer<Drawable> callback) {
+        schedule.remove(app.packageName);
+        Connectivity.whenOnline("icon:" + app.packageName, () -> check(app, callback));
+    }
 
     /**
      * Gets the package name as it should be used for download purposes,
@@ -139,58 +257,109 @@ public abstract class IconUpdater {
         return app.packageName.replace(".mrf.", ".").replace("://", "");
     }
 
-    /**
-     * Downloads an icon from a given url and saves it using saveStream()
-     * @return True if icon was downloaded
-     */
-    private static boolean downloadIconFromUrl(String url, File iconFile) {
-        try (InputStream inputStream = new URL(url).openStream()) {
-            // Try to save
-            if (saveStream(inputStream, iconFile)) {
-                inputStream.close();
-                return true;
-            }
-        } catch (IOException ignored) {}
-        return false;
+    /** Outcome of an attempt to download an icon from a single url */
+    private enum DownloadResult {
+        /** Nothing usable was found at the url */
+        FAILED,
+        /** The icon at the url is the same as the one already cached */
+        NOT_MODIFIED,
+        /** A new icon was downloaded and saved */
+        UPDATED,
+        /** The url's host has been failing, so it wasn't tried */
+        SKIPPED
     }
 
     /**
-     * Saves an input stream used to download a bitmap to an actual file, applying webp compression.
-     * @return True if the stream was different and has been saved
+     * Downloads an icon from a given url and saves it using saveBytes().
+     * <p>
+     * If the icon was downloaded from this url before and is still cached, a conditional request
+     * is made, so an unchanged icon isn't downloaded, decoded or re-encoded again.
+     * @param onUpdated Called with the stored bitmap, only if the icon was updated
+     * @return Result of the download
      */
-    private static boolean saveStream(InputStream inputStream, File outputFile) {
+    private static DownloadResult downloadIconFromUrl(String url, String iconKey,
+                                                      Consumer<Bitmap> onUpdated) {
+        final long startNanos = IconStats.Timer.start();
+        final DownloadResult result = downloadIconFromUrlUntimed(url, iconKey, onUpdated);
+        IconStats.download(url, result.name().toLowerCase(Locale.US)).stop(startNanos);
+        return result;
+    }
+    private static DownloadResult downloadIconFromUrlUntimed(String url, String iconKey,
+                                                             Consumer<Bitmap> onUpdated) {
         try {
-            DataInputStream dataInputStream = new DataInputStream(inputStream);
-
-            int length;
-            byte[] buffer = new byte[65536];
-
-            //noinspection ResultOfMethodCallIgnored
-            Objects.requireNonNull(outputFile.getParentFile()).mkdirs();
-            FileOutputStream fileOutputStream = new FileOutputStream(outputFile, false);
-
-            while ((length = dataInputStream.read(buffer)) > 0)
-                fileOutputStream.write(buffer, 0, length);
+            final IconSchedule.Validators previous
+                    = IconLoader.cacheStore.contains(iconKey) ? schedule.getValidators(url) : null;
+            Map<String, String> requestHeaders = new HashMap<>();
+            if (previous != null) {
+                if (previous.etag != null)
+                    requestHeaders.put("If-None-Match", previous.etag);
+                if (previous.lastModified != null)
+                    requestHeaders.put("If-Modified-Since", previous.lastModified);
+            }
 
-            fileOutputStream.flush();
-            fileOutputStream.close();
+            final HttpLib.Response response = HttpLib.get(url, requestHeaders);
+            if (response.code == HttpURLConnection.HTTP_NOT_MODIFIED && previous != null)
+                return DownloadResult.NOT_MODIFIED;
+            if (response.code != HttpURLConnection.HTTP_OK) return DownloadResult.FAILED;
 
-            Bitmap bitmap = ImageLib.bitmapFromFile(outputFile);
+            final byte[] bytes = response.body;
+            IconStats.addBytesDownloaded(bytes.length);
+            final IconSchedule.Validators validators = new IconSchedule.Validators();
+            validators.etag = response.getHeader("ETag");
+            validators.lastModified = response.getHeader("Last-Modified");
+            validators.contentHash = hash(bytes);
+            validators.iconKey = iconKey;
 
+            // Servers which don't support validators will still send the same content
+            if (previous != null && Objects.equals(previous.contentHash, validators.contentHash)) {
+                schedule.putValidators(url, validators);
+                return DownloadResult.NOT_MODIFIED;
+            }
+            final Bitmap bitmap = saveBytes(bytes, iconKey);
             if (bitmap != null) {
-                IconLoader.compressAndSaveBitmap(outputFile, bitmap);
-                return true;
+                schedule.putValidators(url, validators);
+                onUpdated.accept(bitmap);
+                return DownloadResult.UPDATED;
             }
-            return false;
+        } catch (HostHealth.HostUnavailableException e) {
+            return DownloadResult.SKIPPED;
+        } catch (IOException ignored) {}
+        return DownloadResult.FAILED;
+    }
+
+    @Nullable
+    private static String hash(byte[] bytes) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(bytes);
+            StringBuilder builder = new StringBuilder();
+            for (byte b : digest) builder.append(String.format("%02x", b));
+            return builder.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Decodes the bytes of a downloaded bitmap once, and stores it applying webp compression.
+     * The image is subsampled while decoding, since it'll be scaled down before it's stored anyway.
+     * <p>
+     * The store only indexes an icon once its record is fully written, so a failed or
+     * interrupted save never leaves a half-written icon behind.
+     * @return The scaled bitmap which was stored, or null if the bytes weren't a valid image
+     *         or couldn't be saved
+     */
+    @Nullable
+    private static Bitmap saveBytes(byte[] bytes, String iconKey) {
+        try {
+            Bitmap bitmap = ImageLib.bitmapFromBytes(bytes, 0, IconLoader.ICON_MAX_HEIGHT, null);
+            if (bitmap == null) return null;
+            bitmap = IconLoader.scaleBitmap(bitmap);
+            if (IconLoader.compressAndSaveBitmap(IconLoader.cacheStore, iconKey, bitmap))
+                return bitmap;
+            return null;
         } catch (Exception e) {
             e.printStackTrace();
-            return false;
-        } finally {
-            if (inputStream != null) {
-                try {
-                    inputStream.close();
-                } catch (IOException ignored) {}
-            }
+            return null;
         }
     }
 }
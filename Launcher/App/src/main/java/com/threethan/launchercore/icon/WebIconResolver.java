@@ -0,0 +1,200 @@
+package com.threethan.launchercore.icon;
+
+import androidx.annotation.Nullable;
+
+import com.threethan.launchercore.lib.HttpLib;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Finds the icons a website declares for itself, for websites which no icon repository has.
+ * <p>
+ * The page's head is read for icon links and a web app manifest, whose icons are read as well.
+ * Candidates are ranked by how close their declared size is to the size icons are stored at,
+ * with the site's /favicon.ico as a last resort.
+ */
+abstract class WebIconResolver {
+    /** Only the start of a page is searched, since icons are declared in its head */
+    private static final int MAX_HEAD_CHARS = 256 * 1024;
+    /** Size assumed for apple-touch-icons which don't declare one, as that's their default */
+    private static final int APPLE_TOUCH_ICON_SIZE = 180;
+    private static final Pattern LINK_TAG
+            = Pattern.compile("<link\\b[^>]*>", Pattern.CASE_INSENSITIVE);
+    private static final Pattern ATTRIBUTE = Pattern.compile(
+            "([\\w-]+)\\s*=\\s*(?:\"([^\"]*)\"|'([^']*)'|([^\\s>]+))");
+    private static final Pattern SIZE = Pattern.compile("(\\d+)x(\\d+)", Pattern.CASE_INSENSITIVE);
+
+    /** An icon declared by a website */
+    static class Candidate {
+        final String url;
+        /** Largest declared dimension in px, or 0 if unknown */
+        final int size;
+        Candidate(String url, int size) {
+            this.url = url;
+            this.size = size;
+        }
+    }
+
+    /**
+     * Gets the icons a website declares, best first.
+     * This makes network requests, so must be run on a download thread.
+     * @param pageUrl Url of the website
+     * @return Urls of candidate icons, which may be empty
+     * @throws IOException If the page couldn't be requested at all
+     */
+    static List<String> resolve(String pageUrl) throws IOException {
+        final URL base = new URL(pageUrl);
+        List<Candidate> candidates = new ArrayList<>();
+
+        final HttpLib.Response page = HttpLib.get(pageUrl,
+                Collections.singletonMap("Accept", "text/html"));
+        if (page.code == HttpURLConnection.HTTP_OK) {
+            final String head = new String(page.body, 0,
+                    Math.min(page.body.length, MAX_HEAD_CHARS), StandardCharsets.UTF_8);
+            List<String> manifestUrls = new ArrayList<>();
+            candidates.addAll(parseHead(base, head, manifestUrls));
+            for (String manifestUrl : manifestUrls) candidates.addAll(readManifest(manifestUrl));
+        }
+        candidates.sort(Comparator.comparingInt(WebIconResolver::rank));
+
+        Set<String> urls = new LinkedHashSet<>();
+        for (Candidate candidate : candidates) urls.add(candidate.url);
+        final String favicon = resolveUrl(base, "/favicon.ico");
+        if (favicon != null) urls.add(favicon);
+        return new ArrayList<>(urls);
+    }
+
+    /**
+     * Reads the icon links in the head of a page
+     * @param base Url of the page, which relative links are resolved against
+     * @param page Start of the page
+     * @param manifestUrls Urls of any linked web app manifests are added to this
+     * @return Icons linked by the page, in the order they were declared
+     */
+    static List<Candidate> parseHead(URL base, String page, List<String> manifestUrls) {
+        List<Candidate> candidates = new ArrayList<>();
+        final int headEnd = page.toLowerCase(Locale.US).indexOf("</head>");
+        final Matcher tags = LINK_TAG.matcher(headEnd < 0 ? page : page.substring(0, headEnd));
+        while (tags.find()) {
+            final Map<String, String> attributes = attributesOf(tags.group());
+            final String rel = attributes.getOrDefault("rel", "").toLowerCase(Locale.US);
+            final String href = resolveUrl(base, attributes.get("href"));
+            if (href == null) continue;
+            if (rel.contains("manifest")) manifestUrls.add(href);
+            else if (rel.contains("icon") && !rel.contains("mask")
+                    && isRaster(href, attributes.get("type"))) {
+                int size = sizeOf(attributes.get("sizes"));
+                if (size == 0 && rel.contains("apple-touch-icon")) size = APPLE_TOUCH_ICON_SIZE;
+                candidates.add(new Candidate(href, size));
+            }
+        }
+        return candidates;
+    }
+
+    /** Reads the icons of a web app manifest, which are often the largest a site has */
+    private static List<Candidate> readManifest(String manifestUrl) {
+        try {
+            final HttpLib.Response response = HttpLib.get(manifestUrl, null);
+            if (response.code != HttpURLConnection.HTTP_OK) return new ArrayList<>();
+            return parseManifest(new URL(manifestUrl),
+                    new String(response.body, StandardCharsets.UTF_8));
+        } catch (IOException | JSONException ignored) {
+            return new ArrayList<>();
+        }
+    }
+    /**
+     * Reads the icons of a web app manifest
+     * @param base Url of the manifest, which relative icons are resolved against
+     * @param manifest Json of the manifest
+     * @return Icons listed by the manifest, in the order they were listed
+     */
+    static List<Candidate> parseManifest(URL base, String manifest) throws JSONException {
+        List<Candidate> candidates = new ArrayList<>();
+        final JSONArray icons = new JSONObject(manifest).optJSONArray("icons");
+        if (icons == null) return candidates;
+        for (int i = 0; i < icons.length(); i++) {
+            final JSONObject icon = icons.optJSONObject(i);
+            if (icon == null) continue;
+            // Monochrome icons are masks, which would be shown as a flat shape
+            if (icon.optString("purpose").equals("monochrome")) continue;
+            final String src = resolveUrl(base, icon.optString("src", null));
+            if (src == null || !isRaster(src, icon.optString("type", null))) continue;
+            candidates.add(new Candidate(src, sizeOf(icon.optString("sizes", null))));
+        }
+        return candidates;
+    }
+
+    /**
+     * Ranks a candidate, lower is better: the smallest icon at least as large as stored icons,
+     * then icons of unknown size, then smaller icons from largest to smallest
+     */
+    static int rank(Candidate candidate) {
+        final int target = IconLoader.ICON_MAX_HEIGHT;
+        if (candidate.size >= target) return candidate.size - target;
+        if (candidate.size == 0) return 100_000;
+        return 200_000 - candidate.size;
+    }
+
+    private static Map<String, String> attributesOf(String tag) {
+        Map<String, String> attributes = new HashMap<>();
+        final Matcher matcher = ATTRIBUTE.matcher(tag);
+        while (matcher.find()) {
+            String value = matcher.group(2);
+            if (value == null) value = matcher.group(3);
+            if (value == null) value = matcher.group(4);
+            attributes.put(matcher.group(1).toLowerCase(Locale.US), value.trim());
+        }
+        return attributes;
+    }
+    /** @return The largest dimension of a sizes attribute, or 0 if it has none (such as "any") */
+    private static int sizeOf(@Nullable String sizes) {
+        if (sizes == null) return 0;
+        int size = 0;
+        final Matcher matcher = SIZE.matcher(sizes);
+        while (matcher.find()) {
+            try {
+                size = Math.max(size, Math.max(Integer.parseInt(matcher.group(1)),
+                        Integer.parseInt(matcher.group(2))));
+            } catch (NumberFormatException ignored) {}
+        }
+        return size;
+    }
+    /** Vector icons can't be decoded, so they're skipped */
+    private static boolean isRaster(String url, @Nullable String type) {
+        if (type != null && type.toLowerCase(Locale.US).contains("svg")) return false;
+        final String path = url.toLowerCase(Locale.US).replaceFirst("[?#].*$", "");
+        return !path.endsWith(".svg") && !path.endsWith(".svgz");
+    }
+    /** @return An absolute http(s) url, or null if the href is empty or some other scheme */
+    @Nullable
+    private static String resolveUrl(URL base, @Nullable String href) {
+        if (href == null || href.isEmpty()) return null;
+        try {
+            final URL url = new URL(base, href);
+            if (!url.getProtocol().equals("http") && !url.getProtocol().equals("https"))
+                return null;
+            return url.toString();
+        } catch (MalformedURLException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.threethan.launchercore.lib;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Keeps bitmaps which are no longer used, so that decoding can reuse their memory
+ * (via {@link android.graphics.BitmapFactory.Options#inBitmap}) instead of allocating new ones.
+ * <p>
+ * Bitmaps are grouped by their dimensions and config. Groups which were least recently used
+ * are dropped first once the pool is over its budget.
+ * <p>
+ * Only put bitmaps here which are mutable and which nothing else will draw again.
+ */
+public abstract class BitmapPool {
+    private static final String TAG = "BitmapPool";
+    /** Max bytes of bitmaps kept for reuse */
+    private static final int MAX_BYTES = (int) Math.min(8 * 1024 * 1024,
+            Runtime.getRuntime().maxMemory() / 32);
+
+    private static final LinkedHashMap<String, ArrayDeque<Bitmap>> bitmapsByKey
+            = new LinkedHashMap<>(16, 0.75f, true);
+    private static int sizeBytes = 0;
+    private static int count = 0;
+    private static long hitCount = 0;
+    private static long missCount = 0;
+    private static long dropCount = 0;
+
+    private static String key(int width, int height, Bitmap.Config config) {
+        return width + "x" + height + ":" + config;
+    }
+
+    /**
+     * Adds a bitmap to the pool. Bitmaps which can't be reused are ignored.
+     * @param bitmap A bitmap which will not be used again by anything else
+     */
+    public static synchronized void put(@Nullable Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable()
+                || bitmap.getConfig() == null || bitmap.getConfig() == Bitmap.Config.ALPHA_8) return;
+        final int bytes = bitmap.getAllocationByteCount();
+        if (bytes > MAX_BYTES / 4) return;
+        final String key = key(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
+        ArrayDeque<Bitmap> bitmaps = bitmapsByKey.get(key);
+        if (bitmaps == null) {
+            bitmaps = new ArrayDeque<>();
+            bitmapsByKey.put(key, bitmaps);
+        }
+        bitmaps.push(bitmap);
+        sizeBytes += bytes;
+        count++;
+        trimToSize(MAX_BYTES);
+    }
+
+    /**
+     * Takes a bitmap of the given size and config out of the pool
+     * @return A bitmap to be reused, or null if there is none
+     */
+    @Nullable
+    public static synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+        final Bitmap bitmap = take(width, height, config);
+        if (bitmap == null) missCount++;
+        else hitCount++;
+        return bitmap;
+    }
+
+    /**
+     * Takes a bitmap which an image can be decoded into, trying both given sizes.
+     * If RGB_565 is requested, ARGB_8888 bitmaps are also tried, since they're large enough.
+     * @return A bitmap to be reused, or null if there is none
+     */
+    @Nullable
+    public static synchronized Bitmap getForDecode(int width, int height,
+                                                   int altWidth, int altHeight,
+                                                   Bitmap.Config config) {
+        Bitmap bitmap = take(width, height, config);
+        if (bitmap == null) bitmap = take(altWidth, altHeight, config);
+        if (bitmap == null && config == Bitmap.Config.RGB_565) {
+            bitmap = take(width, height, Bitmap.Config.ARGB_8888);
+            if (bitmap == null) bitmap = take(altWidth, altHeight, Bitmap.Config.ARGB_8888);
+        }
+        if (bitmap == null) missCount++;
+        else hitCount++;
+        return bitmap;
+    }
+    @Nullable
+    private static Bitmap take(int width, int height, Bitmap.Config config) {
+        ArrayDeque<Bitmap> bitmaps = bitmapsByKey.get(key(width, height, config));
+        final Bitmap bitmap = bitmaps == null ? null : bitmaps.poll();
+        if (bitmap == null) return null;
+        sizeBytes -= bitmap.getAllocationByteCount();
+        count--;
+        return bitmap;
+    }
+
+    /** Drops the least recently used bitmaps until the pool is no larger than the given size */
+    public static synchronized void trimToSize(int maxBytes) {
+        Iterator<Map.Entry<String, ArrayDeque<Bitmap>>> iterator
+                = bitmapsByKey.entrySet().iterator();
+        while (sizeBytes > maxBytes && iterator.hasNext()) {
+            ArrayDeque<Bitmap> bitmaps = iterator.next().getValue();
+            while (sizeBytes > maxBytes && !bitmaps.isEmpty()) {
+                // Oldest bitmaps are at the end, since new ones are pushed to the front
+                sizeBytes -= bitmaps.removeLast().getAllocationByteCount();
+                count--;
+                dropCount++;
+            }
+            if (bitmaps.isEmpty()) iterator.remove();
+        }
+    }
+    /** Drops all bitmaps */
+    public static void clear() {
+        trimToSize(0);
+    }
+
+    /** @return Bytes of bitmaps currently in the pool */
+    public static synchronized int getSizeBytes() {
+        return sizeBytes;
+    }
+    /** @return Number of bitmaps currently in the pool */
+    public static synchronized int getCount() {
+        return count;
+    }
+    /** @return Number of times a bitmap was reused */
+    public static synchronized long getHitCount() {
+        return hitCount;
+    }
+    /** @return Number of times no bitmap was available to reuse */
+    public static synchronized long getMissCount() {
+        return missCount;
+    }
+    /** @return Fraction of requests which reused a bitmap, from 0 to 1 */
+    public static synchronized float getHitRate() {
+        final long requests = hitCount + missCount;
+        return requests == 0 ? 0 : hitCount / (float) requests;
+    }
+    /** @return A one-line summary of the pool's state, for logging */
+    public static synchronized String describe() {
+        return String.format(Locale.US, "%d bitmaps, %d/%d KB, %.0f%% hit rate (%d hits, %d misses, %d dropped)",
+                count, sizeBytes / 1024, MAX_BYTES / 1024, getHitRate() * 100,
+                hitCount, missCount, dropCount);
+    }
+    /** Logs the pool's state */
+    public static void log() {
+        Log.v(TAG, describe());
+    }
+}
@@ -0,0 +1,94 @@
+package com.threethan.launchercore.lib;
+
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.threethan.launchercore.Core;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tracks whether the device has a network connection, so network work can wait for one
+ * rather than failing (and being retried) while offline.
+ */
+public abstract class Connectivity {
+    private static final String TAG = "Connectivity";
+    private static volatile boolean online = true;
+    private static boolean registered = false;
+    /** Work waiting for the network to return, by key so each is only queued once */
+    private static final Map<String, Runnable> deferred = new LinkedHashMap<>();
+
+    private static synchronized void register() {
+        if (registered) return;
+        registered = true;
+        try {
+            ConnectivityManager connectivityManager
+                    = Core.context().getSystemService(ConnectivityManager.class);
+            online = hasInternet(connectivityManager, connectivityManager.getActiveNetwork());
+            connectivityManager.registerDefaultNetworkCallback(new ConnectivityManager.NetworkCallback() {
+                @Override
+                public void onAvailable(@NonNull Network network) {
+                    setOnline(true);
+                }
+                @Override
+                public void onLost(@NonNull Network network) {
+                    setOnline(false);
+                }
+            });
+        } catch (RuntimeException e) {
+            // Without a callback, assume we're online so nothing waits forever
+            Log.w(TAG, "Failed to watch connectivity", e);
+            online = true;
+        }
+    }
+    private static boolean hasInternet(ConnectivityManager connectivityManager, Network network) {
+        if (network == null) return false;
+        NetworkCapabilities capabilities = connectivityManager.getNetworkCapabilities(network);
+        return capabilities != null
+                && capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET);
+    }
+
+    private static void setOnline(boolean value) {
+        if (online == value) return;
+        online = value;
+        Log.v(TAG, value ? "Network available" : "Network lost");
+        if (!value) return;
+        // Failures while offline say nothing about the hosts themselves
+        HostHealth.reset();
+        runDeferred();
+    }
+
+    /** @return True if the device currently has a network with internet access */
+    public static boolean isOnline() {
+        register();
+        return online;
+    }
+
+    /**
+     * Runs work once the network is available; immediately if it already is.
+     * @param key Identifies the work; queueing it again replaces the previous runnable
+     * @param runnable Work to run. It may be run on a system callback thread.
+     */
+    public static void whenOnline(String key, Runnable runnable) {
+        synchronized (deferred) {
+            deferred.put(key, runnable);
+        }
+        // Checked after queueing, in case the network returned meanwhile
+        if (isOnline()) runDeferred();
+    }
+    private static void runDeferred() {
+        final List<Runnable> runnables;
+        synchronized (deferred) {
+            runnables = new ArrayList<>(deferred.values());
+            deferred.clear();
+        }
+        for (Runnable runnable : runnables) runnable.run();
+    }
+}
@@ -0,0 +1,102 @@
+package com.threethan.launchercore.lib;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Tracks which hosts are failing, so that requests to them can be skipped
+ * instead of each waiting for a timeout.
+ * <p>
+ * After a few consecutive failures a host's circuit opens, and requests to it are refused
+ * for a backoff period which doubles with each further failure. Once that expires, a single
+ * probe request is let through; if it succeeds the host is healthy again,
+ * otherwise the circuit stays open for longer.
+ */
+public abstract class HostHealth {
+    private static final String TAG = "HostHealth";
+    /** Consecutive failures after which a host's circuit opens */
+    private static final int FAILURES_TO_OPEN = 3;
+    private static final long BASE_BACKOFF_MS = 30 * 1000;
+    private static final long MAX_BACKOFF_MS = 60 * 60 * 1000;
+
+    /** Thrown instead of making a request to a host whose circuit is open */
+    public static class HostUnavailableException extends IOException {
+        public HostUnavailableException(String host) {
+            super("Skipped request to failing host " + host);
+        }
+    }
+
+    private static class State {
+        int consecutiveFailures = 0;
+        long openUntilMs = 0;
+        /** True while the single probe of a half-open circuit is in progress */
+        boolean probing = false;
+    }
+    private static final Map<String, State> stateByHost = new HashMap<>();
+
+    /** @return The host of a url, or the url itself if it can't be parsed */
+    public static String hostOf(String url) {
+        try {
+            return new URL(url).getHost();
+        } catch (MalformedURLException e) {
+            return url;
+        }
+    }
+
+    /**
+     * Checks if a request may be made to a host. If the host's backoff has expired,
+     * this lets a single caller through as a probe, whose result must then be recorded.
+     * @return True if the request should be made
+     */
+    public static synchronized boolean allowRequest(String host) {
+        final State state = stateByHost.get(host);
+        if (state == null || state.consecutiveFailures < FAILURES_TO_OPEN) return true;
+        if (System.currentTimeMillis() < state.openUntilMs || state.probing) return false;
+        state.probing = true;
+        return true;
+    }
+    /** Records that a request to a host succeeded, closing its circuit */
+    public static synchronized void recordSuccess(String host) {
+        final State state = stateByHost.remove(host);
+        if (state != null && state.consecutiveFailures >= FAILURES_TO_OPEN)
+            Log.i(TAG, host + " is reachable again");
+    }
+    /** Records that a request to a host failed, opening its circuit if it keeps failing */
+    public static synchronized void recordFailure(String host) {
+        State state = stateByHost.get(host);
+        if (state == null) {
+            state = new State();
+            stateByHost.put(host, state);
+        }
+        state.consecutiveFailures++;
+        state.probing = false;
+        if (state.consecutiveFailures < FAILURES_TO_OPEN) return;
+        final int doublings = Math.min(20, state.consecutiveFailures - FAILURES_TO_OPEN);
+        final long backoffMs = Math.min(MAX_BACKOFF_MS, BASE_BACKOFF_MS << doublings);
+        state.openUntilMs = System.currentTimeMillis() + backoffMs;
+        Log.w(TAG, host + " failed " + state.consecutiveFailures
+                + " times in a row, skipping it for " + backoffMs / 1000 + "s");
+    }
+    /** Records that a probe was abandoned without a result, so another may be made */
+    public static synchronized void recordAbandoned(String host) {
+        final State state = stateByHost.get(host);
+        if (state != null) state.probing = false;
+    }
+
+    /** @return When requests to a host will next be allowed, or 0 if they're allowed now */
+    public static synchronized long getRetryTimeMs(String host) {
+        final State state = stateByHost.get(host);
+        if (state == null || state.consecutiveFailures < FAILURES_TO_OPEN) return 0;
+        return state.openUntilMs;
+    }
+
+    /** Forgets all failures, such as after the network has changed */
+    public static synchronized void reset() {
+        stateByHost.clear();
+    }
+}
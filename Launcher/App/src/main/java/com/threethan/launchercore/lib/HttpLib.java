@@ -0,0 +1,153 @@
+package com.threethan.launchercore.lib;
+
+import androidx.annotation.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shared http client for small downloads, such as icons and repository listings.
+ * <p>
+ * Connections are kept alive and reused between requests to the same host, which saves a full
+ * TLS handshake per request. This relies on each response being read to the end and closed,
+ * rather than disconnected, so that the platform can return the socket to its pool.
+ * Error responses are read the same way: a plain {@code openStream()} already reuses the
+ * connection after a successful download, but drops it after a 404, which is what most
+ * probes of icon mirrors get.
+ * <p>
+ * Downloads should be run on {@link #execute(Runnable)}, which queues them on a few shared
+ * threads, and the number of simultaneous requests to each host is capped.
+ * Hosts which keep failing are skipped for a while (see {@link HostHealth}).
+ */
+public abstract class HttpLib {
+    private static final int CONNECT_TIMEOUT_MS = 10000;
+    private static final int READ_TIMEOUT_MS = 20000;
+    /** Max requests in progress to any one host */
+    private static final int MAX_REQUESTS_PER_HOST = 2;
+    /** Threads used to run queued downloads */
+    private static final int DOWNLOAD_THREADS = 4;
+
+    private static final Map<String, Semaphore> permitsByHost = new ConcurrentHashMap<>();
+    private static final ThreadPoolExecutor downloadPool;
+    static {
+        downloadPool = new ThreadPoolExecutor(DOWNLOAD_THREADS, DOWNLOAD_THREADS,
+                30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, "HttpLib");
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                });
+        downloadPool.allowCoreThreadTimeOut(true);
+    }
+
+    /** A fully read response */
+    public static class Response {
+        public final int code;
+        /** The body, which is empty for responses such as 304 Not Modified */
+        public final byte[] body;
+        private final Map<String, List<String>> headers;
+
+        private Response(int code, byte[] body, Map<String, List<String>> headers) {
+            this.code = code;
+            this.body = body;
+            this.headers = headers;
+        }
+        /** @return The first value of a response header, ignoring case, or null if not sent */
+        @Nullable
+        public String getHeader(String name) {
+            for (Map.Entry<String, List<String>> header : headers.entrySet())
+                if (name.equalsIgnoreCase(header.getKey()) && !header.getValue().isEmpty())
+                    return header.getValue().get(0);
+            return null;
+        }
+    }
+
+    /** Queues a download to be run on one of the shared download threads, in order */
+    public static void execute(Runnable download) {
+        downloadPool.execute(download);
+    }
+    /** @return The number of downloads waiting for a free thread */
+    public static int getQueuedCount() {
+        return downloadPool.getQueue().size();
+    }
+
+    /**
+     * Makes a GET request, reusing a kept-alive connection to the host if one is available.
+     * Blocks while the host already has the maximum number of requests in progress.
+     * @param url Url to request
+     * @param requestHeaders Extra request headers, or null for none
+     * @return The response, with its body fully read
+     * @throws IOException If the request failed or was interrupted
+     * @throws HostHealth.HostUnavailableException If the host has been failing, so wasn't tried
+     */
+    public static Response get(String url, @Nullable Map<String, String> requestHeaders)
+            throws IOException {
+        final URL parsedUrl = new URL(url);
+        final String host = parsedUrl.getHost();
+        if (!HostHealth.allowRequest(host)) throw new HostHealth.HostUnavailableException(host);
+        final Semaphore permits = permitsByHost.computeIfAbsent(host,
+                key -> new Semaphore(MAX_REQUESTS_PER_HOST, true));
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            HostHealth.recordAbandoned(host);
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for " + host, e);
+        }
+        HttpURLConnection connection = null;
+        boolean recorded = false;
+        try {
+            connection = (HttpURLConnection) parsedUrl.openConnection();
+            connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+            connection.setReadTimeout(READ_TIMEOUT_MS);
+            if (requestHeaders != null) for (Map.Entry<String, String> header : requestHeaders.entrySet())
+                connection.setRequestProperty(header.getKey(), header.getValue());
+
+            final int code = connection.getResponseCode();
+            // The body must be read to the end, even for errors, or the connection can't be reused
+            InputStream inputStream = code >= 400
+                    ? connection.getErrorStream() : connection.getInputStream();
+            final byte[] body;
+            if (inputStream == null) body = new byte[0];
+            else try (InputStream stream = inputStream) {
+                body = readAll(stream);
+            }
+            final Response response = new Response(code, body, connection.getHeaderFields());
+            connection = null; // Read and closed cleanly, so the socket is kept alive
+            // Missing files are expected, only server errors count against the host
+            if (code >= 500 || code == 429) HostHealth.recordFailure(host);
+            else HostHealth.recordSuccess(host);
+            recorded = true;
+            return response;
+        } catch (IOException e) {
+            // Failures while offline are the network's fault, not the host's
+            if (Connectivity.isOnline()) {
+                HostHealth.recordFailure(host);
+                recorded = true;
+            }
+            throw e;
+        } finally {
+            if (!recorded) HostHealth.recordAbandoned(host);
+            // Only a failed connection is disconnected, since that closes the socket
+            if (connection != null) connection.disconnect();
+            permits.release();
+        }
+    }
+
+    private static byte[] readAll(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        byte[] buffer = new byte[65536];
+        int length;
+        while ((length = inputStream.read(buffer)) > 0) outputStream.write(buffer, 0, length);
+        return outputStream.toByteArray();
+    }
+}
@@ -1,18 +1,28 @@
 package com.threethan.launchercore.lib;
 
+import android.content.ContentResolver;
+import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
+import android.graphics.ImageDecoder;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
+import android.net.Uri;
+import android.os.Build;
+import android.util.Log;
 
 import androidx.annotation.Nullable;
+import androidx.annotation.RequiresApi;
 
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.Objects;
+import java.util.function.Function;
 
 /** @noinspection unused*/
 public class ImageLib {
@@ -68,4 +78,248 @@ public class ImageLib {
         try { stream.close(); } catch (IOException ignored) {}
         return bitmap;
     }
+
+    // Target-size-aware decoding
+    // These first read only the bounds of an image, then decode it subsampled by the largest
+    // power of two which keeps it at least as large as the target in both dimensions.
+    // The preferred config may be RGB_565, which is only used if the image is opaque,
+    // or HARDWARE (api 26+) for bitmaps which will only ever be drawn.
+    // Software bitmaps from files, bytes and buffers are decoded into pooled bitmaps if possible.
+
+    /**
+     * Gets the subsampling to decode an image at, so that it is no smaller than the target
+     * @param width Width of the full image
+     * @param height Height of the full image
+     * @param targetWidth Width it will be displayed at, or 0 to only consider the height
+     * @param targetHeight Height it will be displayed at, or 0 to only consider the width
+     * @return Sample size, a power of two
+     */
+    public static int sampleSizeFor(int width, int height, int targetWidth, int targetHeight) {
+        int sampleSize = 1;
+        if (width <= 0 || height <= 0 || targetWidth <= 0 && targetHeight <= 0) return sampleSize;
+        while (width / (sampleSize * 2) >= targetWidth
+                && height / (sampleSize * 2) >= targetHeight) sampleSize *= 2;
+        return sampleSize;
+    }
+
+    private static BitmapFactory.Options sampledOptions(BitmapFactory.Options bounds,
+                                                        int targetWidth, int targetHeight,
+                                                        @Nullable Bitmap.Config config) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSizeFor(bounds.outWidth, bounds.outHeight,
+                targetWidth, targetHeight);
+        options.inPreferredConfig = config == null ? Bitmap.Config.ARGB_8888 : config;
+        return options;
+    }
+    /**
+     * Decodes with the given sampled options, reusing a bitmap from the {@link BitmapPool}
+     * if it has one the image fits in. Software bitmaps are decoded as mutable,
+     * so that they may be put in the pool once they're no longer used.
+     */
+    @Nullable
+    private static Bitmap decodeReusing(BitmapFactory.Options bounds, BitmapFactory.Options options,
+                                        Function<BitmapFactory.Options, Bitmap> decode) {
+        takePooledBitmap(bounds, options);
+        return decodeInto(options, decode);
+    }
+    /**
+     * Sets the options to decode into a bitmap from the {@link BitmapPool},
+     * if it has one the image fits in
+     * @return True if a pooled bitmap was taken
+     */
+    private static boolean takePooledBitmap(BitmapFactory.Options bounds,
+                                            BitmapFactory.Options options) {
+        final Bitmap.Config config = options.inPreferredConfig;
+        if (config == Bitmap.Config.ARGB_8888 || config == Bitmap.Config.RGB_565) {
+            options.inMutable = true;
+            // The decoder may round subsampled sizes either way, so try both
+            final int sampleSize = options.inSampleSize;
+            options.inBitmap = BitmapPool.getForDecode(
+                    (bounds.outWidth + sampleSize - 1) / sampleSize,
+                    (bounds.outHeight + sampleSize - 1) / sampleSize,
+                    bounds.outWidth / sampleSize, bounds.outHeight / sampleSize, config);
+        }
+        return options.inBitmap != null;
+    }
+    /**
+     * Decodes with options from {@link #takePooledBitmap}, returning the pooled bitmap
+     * to the pool if it couldn't be used
+     */
+    @Nullable
+    private static Bitmap decodeInto(BitmapFactory.Options options,
+                                     Function<BitmapFactory.Options, Bitmap> decode) {
+        Bitmap bitmap;
+        try {
+            bitmap = decode.apply(options);
+        } catch (IllegalArgumentException e) {
+            // The pooled bitmap was too small, eg. if an image requested as RGB_565 had alpha
+            if (options.inBitmap == null) throw e;
+            BitmapPool.put(options.inBitmap);
+            options.inBitmap = null;
+            bitmap = decode.apply(options);
+        }
+        if (bitmap == null && options.inBitmap != null) BitmapPool.put(options.inBitmap);
+        return bitmap;
+    }
+    private static BitmapFactory.Options boundsOptions() {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        return options;
+    }
+
+    /**
+     * Decodes a file, subsampled to the given target size
+     * @param config Preferred config, or null for the default
+     */
+    @Nullable
+    public static Bitmap bitmapFromFile(File file, int targetWidth, int targetHeight,
+                                        @Nullable Bitmap.Config config) {
+        BitmapFactory.Options bounds = boundsOptions();
+        BitmapFactory.decodeFile(file.getPath(), bounds);
+        if (bounds.outWidth <= 0) return null;
+        return decodeReusing(bounds, sampledOptions(bounds, targetWidth, targetHeight, config),
+                options -> BitmapFactory.decodeFile(file.getPath(), options));
+    }
+
+    /**
+     * Decodes an encoded image, subsampled to the given target size
+     * @param config Preferred config, or null for the default
+     */
+    @Nullable
+    public static Bitmap bitmapFromBytes(byte[] bytes, int targetWidth, int targetHeight,
+                                         @Nullable Bitmap.Config config) {
+        BitmapFactory.Options bounds = boundsOptions();
+        BitmapFactory.decodeByteArray(bytes, 0, bytes.length, bounds);
+        if (bounds.outWidth <= 0) return null;
+        return decodeReusing(bounds, sampledOptions(bounds, targetWidth, targetHeight, config),
+                options -> BitmapFactory.decodeByteArray(bytes, 0, bytes.length, options));
+    }
+    /**
+     * Decodes an encoded image from a buffer, subsampled to the given target size,
+     * without copying the whole buffer.
+     * <p>
+     * If the {@link BitmapPool} has a bitmap this image fits in, it's decoded into that.
+     * Otherwise, on api 28+, it's decoded by ImageDecoder, which reads the buffer in place
+     * if it's direct but can't reuse bitmaps.
+     * @param config Preferred config, or null for the default
+     */
+    @Nullable
+    public static Bitmap bitmapFromBuffer(ByteBuffer buffer, int targetWidth, int targetHeight,
+                                          @Nullable Bitmap.Config config) {
+        BitmapFactory.Options bounds = boundsOptions();
+        BitmapFactory.decodeStream(new ByteBufferInputStream(buffer), null, bounds);
+        if (bounds.outWidth <= 0) return null;
+        BitmapFactory.Options options = sampledOptions(bounds, targetWidth, targetHeight, config);
+        if (!takePooledBitmap(bounds, options) && Build.VERSION.SDK_INT >= Build.VERSION_CODES.P)
+            return decodeInPlace(buffer, targetWidth, targetHeight, config);
+        return decodeInto(options, decodeOptions -> BitmapFactory.decodeStream(
+                new ByteBufferInputStream(buffer), null, decodeOptions));
+    }
+    @Nullable
+    @RequiresApi(Build.VERSION_CODES.P)
+    private static Bitmap decodeInPlace(ByteBuffer buffer, int targetWidth, int targetHeight,
+                                        @Nullable Bitmap.Config config) {
+        try {
+            return ImageDecoder.decodeBitmap(ImageDecoder.createSource(buffer),
+                    (decoder, info, source) -> {
+                decoder.setTargetSampleSize(sampleSizeFor(info.getSize().getWidth(),
+                        info.getSize().getHeight(), targetWidth, targetHeight));
+                if (config == Bitmap.Config.HARDWARE)
+                    decoder.setAllocator(ImageDecoder.ALLOCATOR_HARDWARE);
+                else {
+                    decoder.setAllocator(ImageDecoder.ALLOCATOR_SOFTWARE);
+                    decoder.setMutableRequired(true); // So it may be pooled later
+                }
+                // Low ram policy only changes the config of opaque images
+                if (config == Bitmap.Config.RGB_565)
+                    decoder.setMemorySizePolicy(ImageDecoder.MEMORY_POLICY_LOW_RAM);
+            });
+        } catch (IOException e) {
+            Log.w("ImageLib", "Failed to decode image buffer", e);
+            return null;
+        }
+    }
+
+    /** Reads a buffer as a stream, from its position to its limit, without changing it */
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+        private int mark;
+        private ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer.duplicate();
+            this.mark = this.buffer.position();
+        }
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (length == 0) return 0;
+            if (!buffer.hasRemaining()) return -1;
+            length = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, length);
+            return length;
+        }
+        @Override
+        public long skip(long count) {
+            final int skipped = (int) Math.max(0, Math.min(count, buffer.remaining()));
+            buffer.position(buffer.position() + skipped);
+            return skipped;
+        }
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+        @Override
+        public boolean markSupported() {
+            return true;
+        }
+        @Override
+        public synchronized void mark(int readLimit) {
+            mark = buffer.position();
+        }
+        @Override
+        public synchronized void reset() {
+            buffer.position(mark);
+        }
+    }
+
+    /**
+     * Decodes an image from a content uri, subsampled to the given target size.
+     * The uri is opened twice, once to read the bounds and once to decode.
+     * @param config Preferred config, or null for the default
+     */
+    @Nullable
+    public static Bitmap bitmapFromUri(ContentResolver contentResolver, Uri uri,
+                                       int targetWidth, int targetHeight,
+                                       @Nullable Bitmap.Config config) throws FileNotFoundException {
+        BitmapFactory.Options bounds = boundsOptions();
+        bitmapFromStream(contentResolver.openInputStream(uri), bounds);
+        if (bounds.outWidth <= 0) return null;
+        return bitmapFromStream(contentResolver.openInputStream(uri),
+                sampledOptions(bounds, targetWidth, targetHeight, config));
+    }
+    @Nullable
+    private static Bitmap bitmapFromStream(@Nullable InputStream stream,
+                                           BitmapFactory.Options options) {
+        if (stream == null) return null;
+        final Bitmap bitmap = BitmapFactory.decodeStream(stream, null, options);
+        try { stream.close(); } catch (IOException ignored) {}
+        return bitmap;
+    }
+
+    /**
+     * Decodes a drawable resource, subsampled to the given target size
+     * @param config Preferred config, or null for the default
+     */
+    @Nullable
+    public static Bitmap bitmapFromResource(Resources resources, int id,
+                                            int targetWidth, int targetHeight,
+                                            @Nullable Bitmap.Config config) {
+        BitmapFactory.Options bounds = boundsOptions();
+        BitmapFactory.decodeResource(resources, id, bounds);
+        if (bounds.outWidth <= 0) return null;
+        return BitmapFactory.decodeResource(resources, id,
+                sampledOptions(bounds, targetWidth, targetHeight, config));
+    }
 }
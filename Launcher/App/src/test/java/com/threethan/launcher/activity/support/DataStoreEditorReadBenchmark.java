@@ -0,0 +1,81 @@
+package com.threethan.launcher.activity.support;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import androidx.datastore.preferences.core.Preferences;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+/**
+ * Compares the latency of reading a key from the in-memory snapshot against reading it by
+ * blocking on the data store's flow, which is how every read used to be done.
+ * <p>
+ * Timings are printed rather than asserted, since they depend on the machine running them.
+ */
+public class DataStoreEditorReadBenchmark {
+    private static final int KEY_COUNT = 200;
+    private static final int WARMUP_READS = 2_000;
+    private static final int READS = 20_000;
+    /** Fails rather than hangs, should a write before the first load wait on it again */
+    private static final long TIMEOUT_MS = 60_000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test(timeout = TIMEOUT_MS)
+    public void writeBeforeFirstLoad() {
+        final File file = new File(folder.getRoot(), "early.preferences_pb");
+        final DataStoreEditor dataStoreEditor = new DataStoreEditor(file);
+        assertTrue(dataStoreEditor.edit().clear().putString(key(0), "Label 0").commit());
+        dataStoreEditor.awaitFirstLoad();
+        assertEquals("Label 0", dataStoreEditor.getString(key(0), null));
+    }
+
+    @Test(timeout = TIMEOUT_MS)
+    public void readLatency() {
+        final File file = new File(folder.getRoot(), "benchmark.preferences_pb");
+        final DataStoreEditor dataStoreEditor = new DataStoreEditor(file);
+        // Written before the store is loaded, as the first save of exported settings is
+        DataStoreEditor.Batch batch = dataStoreEditor.edit();
+        for (int i = 0; i < KEY_COUNT; i++) batch.putString(key(i), "Label " + i);
+        assertTrue(batch.commit());
+        dataStoreEditor.awaitFirstLoad();
+
+        final Preferences.Key<String> prefKey = DataStoreEditor.getKey(key(0), String.class);
+        for (int i = 0; i < WARMUP_READS; i++) {
+            blockingRead(dataStoreEditor, prefKey);
+            dataStoreEditor.getString(key(i % KEY_COUNT), null);
+        }
+
+        long startNanos = System.nanoTime();
+        for (int i = 0; i < READS; i++)
+            assertEquals("Label 0", blockingRead(dataStoreEditor, prefKey));
+        final long blockingNanos = (System.nanoTime() - startNanos) / READS;
+
+        startNanos = System.nanoTime();
+        for (int i = 0; i < READS; i++)
+            assertEquals("Label " + (i % KEY_COUNT),
+                    dataStoreEditor.getString(key(i % KEY_COUNT), null));
+        final long snapshotNanos = (System.nanoTime() - startNanos) / READS;
+
+        System.out.printf("DataStoreEditor read latency over %d reads: "
+                        + "blocking %d ns/read, snapshot %d ns/read%n",
+                READS, blockingNanos, snapshotNanos);
+    }
+
+    /** Reads a key the way reads were done before the snapshot */
+    private static String blockingRead(DataStoreEditor dataStoreEditor,
+                                       Preferences.Key<String> prefKey) {
+        return dataStoreEditor.dataStoreRX.data().firstOrError()
+                .map(preferences -> preferences.get(prefKey)).blockingGet();
+    }
+
+    private static String key(int i) {
+        return "com.example.app" + i;
+    }
+}
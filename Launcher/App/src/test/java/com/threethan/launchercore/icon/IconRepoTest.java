@@ -0,0 +1,122 @@
+package com.threethan.launchercore.icon;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/** Fetches listings from a local stand-in for the GitHub trees api */
+public class IconRepoTest {
+    /** A repository with two template directories, and files which should be ignored */
+    private static final String FIXTURE_TREE = "{\"truncated\": false, \"tree\": ["
+            + "{\"path\": \"oculus_square\", \"type\": \"tree\"},"
+            + "{\"path\": \"oculus_square/com.example.game.jpg\", \"type\": \"blob\"},"
+            + "{\"path\": \"oculus_square/com.example.tool.jpg\", \"type\": \"blob\"},"
+            + "{\"path\": \"pico_square/com.example.pico.png\", \"type\": \"blob\"},"
+            + "{\"path\": \"oculus_landscape/com.example.banner.jpg\", \"type\": \"blob\"},"
+            + "{\"path\": \"README.md\", \"type\": \"blob\"}"
+            + "]}";
+    private static final String TRUNCATED_TREE = "{\"truncated\": true, \"tree\": ["
+            + "{\"path\": \"oculus_square/com.example.game.jpg\", \"type\": \"blob\"}"
+            + "]}";
+    private static final Set<String> DIRECTORIES
+            = new HashSet<>(Arrays.asList("oculus_square", "pico_square"));
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    private HttpServer server;
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        serve("/fixture", 200, FIXTURE_TREE);
+        serve("/truncated", 200, TRUNCATED_TREE);
+        serve("/missing", 404, "{\"message\": \"Not Found\"}");
+        server.start();
+    }
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+    private void serve(String path, int code, String body) {
+        server.createContext(path, exchange -> {
+            final byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(code, bytes.length);
+            try (OutputStream outputStream = exchange.getResponseBody()) {
+                outputStream.write(bytes);
+            }
+        });
+    }
+    private String url(String path) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + path;
+    }
+
+    @Test
+    public void keepsOnlyNamesInTemplateDirectories() {
+        IconRepo.Index index = IconRepo.fetchIndex(url("/fixture"), DIRECTORIES);
+        assertNotNull(index);
+        assertTrue(index.complete);
+        assertEquals(DIRECTORIES, index.namesByDirectory.keySet());
+        assertEquals(new HashSet<>(Arrays.asList("com.example.game", "com.example.tool")),
+                index.namesByDirectory.get("oculus_square"));
+        assertEquals(Collections.singleton("com.example.pico"),
+                index.namesByDirectory.get("pico_square"));
+    }
+
+    @Test
+    public void resolvesLookupsLocally() {
+        IconRepo.Index index = IconRepo.fetchIndex(url("/fixture"), DIRECTORIES);
+        assertNotNull(index);
+        assertTrue(index.mayHave("oculus_square", "com.example.game"));
+        assertFalse(index.mayHave("oculus_square", "com.example.pico"));
+        assertFalse(index.mayHave("pico_square", "com.example.absent"));
+        // Directories which weren't listed can't rule anything out
+        assertFalse(index.covers("oculus_landscape"));
+        assertTrue(index.mayHave("oculus_landscape", "com.example.absent"));
+    }
+
+    @Test
+    public void truncatedListingNeverRulesOutFiles() {
+        IconRepo.Index index = IconRepo.fetchIndex(url("/truncated"), DIRECTORIES);
+        assertNotNull(index);
+        assertFalse(index.complete);
+        assertTrue(index.mayHave("oculus_square", "com.example.absent"));
+    }
+
+    @Test
+    public void failedFetchHasNoListing() {
+        assertNull(IconRepo.fetchIndex(url("/missing"), DIRECTORIES));
+    }
+
+    @Test
+    public void storedListingMatchesFetched() {
+        IconRepo.Index fetched = IconRepo.fetchIndex(url("/fixture"), DIRECTORIES);
+        assertNotNull(fetched);
+        IconRepo.writeIndex(folder.getRoot(), "fixture", fetched);
+        IconRepo.Index read = IconRepo.readIndex(new File(folder.getRoot(), "fixture.txt"));
+        assertNotNull(read);
+        assertEquals(fetched.fetchedMs, read.fetchedMs);
+        assertEquals(fetched.complete, read.complete);
+        assertEquals(fetched.namesByDirectory, read.namesByDirectory);
+    }
+}
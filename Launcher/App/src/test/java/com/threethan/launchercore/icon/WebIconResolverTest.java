@@ -0,0 +1,132 @@
+package com.threethan.launchercore.icon;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.sun.net.httpserver.HttpServer;
+
+import org.json.JSONException;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/** Parses icon declarations of fixture pages and manifests, and ranks them */
+public class WebIconResolverTest {
+    private static final String PAGE = "<!DOCTYPE html><html><HEAD>"
+            + "<meta charset=\"utf-8\">"
+            + "<link rel=\"icon\" href=\"/favicon-32.png\" sizes=\"32x32\">"
+            + "<LINK REL='apple-touch-icon' HREF='touch.png'>"
+            + "<link rel=icon href=/logo.svg type=image/svg+xml>"
+            + "<link rel=\"mask-icon\" href=\"/mask.png\">"
+            + "<link rel=\"shortcut icon\" href=\"https://cdn.example.com/icon.png?v=2\">"
+            + "<link rel=\"icon\" href=\"data:image/png;base64,AAAA\">"
+            + "<link rel=\"stylesheet\" href=\"/style.css\">"
+            + "<link rel=\"manifest\" href=\"/app.webmanifest\">"
+            + "</head><body><link rel=\"icon\" href=\"/body.png\"></body></html>";
+    private static final String MANIFEST = "{\"icons\": ["
+            + "{\"src\": \"icons/192.png\", \"sizes\": \"192x192\", \"type\": \"image/png\"},"
+            + "{\"src\": \"icons/512.png\", \"sizes\": \"512x512 1024x1024\"},"
+            + "{\"src\": \"icons/mono.png\", \"sizes\": \"512x512\", \"purpose\": \"monochrome\"},"
+            + "{\"src\": \"icons/any.svg\", \"sizes\": \"any\"},"
+            + "{\"sizes\": \"48x48\"}"
+            + "]}";
+
+    @Test
+    public void parsesIconLinksInHead() throws IOException {
+        List<String> manifestUrls = new ArrayList<>();
+        List<WebIconResolver.Candidate> candidates = WebIconResolver.parseHead(
+                new URL("https://example.com/app/index.html"), PAGE, manifestUrls);
+        assertEquals(Arrays.asList(
+                "https://example.com/favicon-32.png",
+                "https://example.com/app/touch.png",
+                "https://cdn.example.com/icon.png?v=2"), urlsOf(candidates));
+        assertEquals(Arrays.asList(32, 180, 0), sizesOf(candidates));
+        assertEquals(Collections.singletonList("https://example.com/app.webmanifest"),
+                manifestUrls);
+    }
+
+    @Test
+    public void parsesManifestIcons() throws IOException, JSONException {
+        List<WebIconResolver.Candidate> candidates = WebIconResolver.parseManifest(
+                new URL("https://example.com/app.webmanifest"), MANIFEST);
+        assertEquals(Arrays.asList(
+                "https://example.com/icons/192.png",
+                "https://example.com/icons/512.png"), urlsOf(candidates));
+        assertEquals(Arrays.asList(192, 1024), sizesOf(candidates));
+    }
+
+    @Test
+    public void manifestWithoutIconsHasNoCandidates() throws IOException, JSONException {
+        assertTrue(WebIconResolver.parseManifest(
+                new URL("https://example.com/app.webmanifest"), "{\"name\": \"App\"}").isEmpty());
+    }
+
+    @Test
+    public void ranksClosestLargerSizeFirst() {
+        final int target = IconLoader.ICON_MAX_HEIGHT;
+        List<WebIconResolver.Candidate> candidates = new ArrayList<>(Arrays.asList(
+                new WebIconResolver.Candidate("small", target / 4),
+                new WebIconResolver.Candidate("unknown", 0),
+                new WebIconResolver.Candidate("huge", target * 8),
+                new WebIconResolver.Candidate("medium", target / 2),
+                new WebIconResolver.Candidate("exact", target),
+                new WebIconResolver.Candidate("large", target * 2)));
+        candidates.sort((a, b) -> Integer.compare(
+                WebIconResolver.rank(a), WebIconResolver.rank(b)));
+        assertEquals(Arrays.asList("exact", "large", "huge", "unknown", "medium", "small"),
+                urlsOf(candidates));
+    }
+
+    @Test
+    public void resolvesFromLocalSite() throws IOException {
+        HttpServer server = HttpServer.create(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        serve(server, "/", PAGE);
+        serve(server, "/app.webmanifest", MANIFEST);
+        server.start();
+        try {
+            final String site = "http://127.0.0.1:" + server.getAddress().getPort();
+            assertEquals(Arrays.asList(
+                    site + "/app/touch.png",
+                    site + "/icons/192.png",
+                    site + "/icons/512.png",
+                    "https://cdn.example.com/icon.png?v=2",
+                    site + "/favicon-32.png",
+                    site + "/favicon.ico"), WebIconResolver.resolve(site + "/app/"));
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    private static void serve(HttpServer server, String path, String body) {
+        server.createContext(path, exchange -> {
+            final boolean found = exchange.getRequestURI().getPath().equals(path)
+                    || path.equals("/");
+            final byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(found ? 200 : 404, bytes.length);
+            try (OutputStream outputStream = exchange.getResponseBody()) {
+                outputStream.write(bytes);
+            }
+        });
+    }
+
+    private static List<String> urlsOf(List<WebIconResolver.Candidate> candidates) {
+        List<String> urls = new ArrayList<>();
+        for (WebIconResolver.Candidate candidate : candidates) urls.add(candidate.url);
+        return urls;
+    }
+    private static List<Integer> sizesOf(List<WebIconResolver.Candidate> candidates) {
+        List<Integer> sizes = new ArrayList<>();
+        for (WebIconResolver.Candidate candidate : candidates) sizes.add(candidate.size);
+        return sizes;
+    }
+}
@@ -0,0 +1,102 @@
+package com.threethan.launchercore.lib;
+
+import static org.junit.Assert.assertEquals;
+
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compares probing a local stand-in mirror with {@link HttpLib} against plain
+ * {@code openStream()} calls, which is how icons were downloaded before.
+ * <p>
+ * Most probes of a mirror are misses, so every fourth file exists and the rest are 404s.
+ * The number of connections the server accepted stands in for the number of TLS handshakes.
+ * Results are printed rather than asserted, since they depend on the machine running them.
+ */
+public class HttpLibBenchmark {
+    private static final int WARMUP_REQUESTS = 50;
+    private static final int REQUESTS = 400;
+    private static final byte[] ICON = new byte[8 * 1024];
+
+    private HttpServer server;
+    /** Remote ports of accepted connections, one per connection */
+    private final Set<Integer> connections = ConcurrentHashMap.newKeySet();
+
+    @Before
+    public void startServer() throws IOException {
+        // Otherwise the stand-in's small writes wait on delayed acks, on every reused connection
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", exchange -> {
+            connections.add(exchange.getRemoteAddress().getPort());
+            final boolean exists = exchange.getRequestURI().getPath().equals("/icon/0.png");
+            final byte[] body = exists ? ICON : "404: Not Found".getBytes();
+            exchange.sendResponseHeaders(exists ? 200 : 404, body.length);
+            try (OutputStream outputStream = exchange.getResponseBody()) {
+                outputStream.write(body);
+            }
+        });
+        server.start();
+    }
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    private String url(int i) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/icon/" + (i % 4) + ".png";
+    }
+
+    @Test
+    public void probeConnectionsAndThroughput() throws IOException {
+        for (int i = 0; i < WARMUP_REQUESTS; i++) {
+            probeWithOpenStream(url(i));
+            HttpLib.get(url(i), null);
+        }
+
+        connections.clear();
+        long startNanos = System.nanoTime();
+        int found = 0;
+        for (int i = 0; i < REQUESTS; i++) if (probeWithOpenStream(url(i))) found++;
+        final long openStreamNanos = System.nanoTime() - startNanos;
+        final int openStreamConnections = connections.size();
+        assertEquals(REQUESTS / 4, found);
+
+        connections.clear();
+        startNanos = System.nanoTime();
+        found = 0;
+        for (int i = 0; i < REQUESTS; i++) if (HttpLib.get(url(i), null).code == 200) found++;
+        final long httpLibNanos = System.nanoTime() - startNanos;
+        final int httpLibConnections = connections.size();
+        assertEquals(REQUESTS / 4, found);
+
+        System.out.printf("%d probes: openStream %d connections, %.0f requests/s; "
+                        + "HttpLib %d connections, %.0f requests/s%n", REQUESTS,
+                openStreamConnections, REQUESTS * 1e9 / openStreamNanos,
+                httpLibConnections, REQUESTS * 1e9 / httpLibNanos);
+    }
+
+    /** Downloads a file the way icons were downloaded before {@link HttpLib} */
+    private static boolean probeWithOpenStream(String url) {
+        try (InputStream inputStream = new URL(url).openStream()) {
+            final byte[] buffer = new byte[8 * 1024];
+            //noinspection StatementWithEmptyBody
+            while (inputStream.read(buffer) != -1);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}